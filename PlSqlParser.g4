@@ -2046,7 +2046,7 @@ datatype
     ;
 
 precision_part
-    : '(' numeric (',' numeric)? (CHAR | BYTE)? ')'
+    : '(' (numeric | '*') (',' numeric)? (CHAR | BYTE)? ')'
     ;
 
 native_datatype_element
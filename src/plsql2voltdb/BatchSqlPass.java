@@ -0,0 +1,109 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Return;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+
+/**
+ * Groups independent SQL statements of each block into batches that are
+ * queued together and run with a single voltExecuteSQL.  A batch ends at
+ * any control flow, so SQL is never run before a branch or a return that
+ * might have skipped it.
+ */
+public class BatchSqlPass implements OptimizerPass {
+
+    /**
+     * SQL statements of one block that will be queued together.
+     */
+    private static class Batch {
+        final List<SqlOp> m_members = new ArrayList<>();
+        final Set<String> m_memberDefs = new TreeSet<>();
+
+        // What the code between the first member and the next statement does
+        boolean m_hasInterveningCode = false;
+        boolean m_interveningExecutesSql = false;
+        final Set<String> m_interveningDefs = new TreeSet<>();
+
+        void add(SqlOp op) {
+            m_members.add(op);
+            m_memberDefs.addAll(op.getDefs());
+        }
+
+        void addInterveningCode(Stmt stmt) {
+            m_hasInterveningCode = true;
+            m_interveningExecutesSql |= stmt.executesSql();
+            m_interveningDefs.addAll(stmt.getDefs());
+        }
+
+        /**
+         * A statement can join the batch if none of its inputs come from an
+         * earlier member.  If other code comes between the batch and the
+         * statement, then the statement is executed early, so it must be a
+         * query whose inputs that code doesn't assign, and the code must not
+         * run any SQL of its own.  Results are still read at the statement's
+         * original position.
+         */
+        boolean canAdd(SqlOp op) {
+            if (m_members.size() >= ProcedureEmitter.MAX_BATCH_SIZE
+                    || ! Collections.disjoint(op.getUses(), m_memberDefs)) {
+                return false;
+            }
+
+            if (m_hasInterveningCode) {
+                return op.getStmt().isReadOnly()
+                        && ! m_interveningExecutesSql
+                        && Collections.disjoint(op.getUses(), m_interveningDefs);
+            }
+
+            return true;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "batch-sql";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        batchBlock(ir.getBody());
+    }
+
+    private void batchBlock(List<Stmt> block) {
+        Batch open = null;
+        for (Stmt stmt : block) {
+            // The SQL of a loop that queues it across rows is executed by the loop
+            if (! (stmt instanceof CursorLoop && ((CursorLoop) stmt).getDeferredSqlCount() > 0)) {
+                for (List<Stmt> nested : stmt.getBlocks()) {
+                    batchBlock(nested);
+                }
+            }
+
+            if (stmt instanceof Return || ! stmt.getBlocks().isEmpty()) {
+                open = null;
+                continue;
+            }
+
+            if (! (stmt instanceof SqlOp) || ! ((SqlOp) stmt).isExecuted()) {
+                if (open != null) {
+                    open.addInterveningCode(stmt);
+                }
+                continue;
+            }
+
+            SqlOp op = (SqlOp) stmt;
+            if (open == null || ! open.canAdd(op)) {
+                open = new Batch();
+            }
+            open.add(op);
+            op.setBatch(open.m_members);
+        }
+    }
+}
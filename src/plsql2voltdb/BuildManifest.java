@@ -0,0 +1,203 @@
+package plsql2voltdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records, for each translated PL/SQL file, the hashes of its contents and the
+ * generator configuration it was translated with, the signatures of the tables,
+ * views and columns it depends on, and the hash of every Java file it produced.
+ * A file whose hashes and dependencies all still match does not need to be
+ * translated again, so a DDL change only causes the procedures that use the
+ * changed objects to be translated.
+ *
+ * The manifest is a text file with one tab-separated record per line:
+ *
+ *   input   PATH          INPUT_HASH  GENERATOR_HASH
+ *   table   NAME          SIGNATURE
+ *   column  TABLE.COLUMN  SIGNATURE
+ *   output  PATH          OUTPUT_HASH
+ *
+ * where each "table", "column" and "output" line belongs to the "input"
+ * line before it.
+ */
+public class BuildManifest {
+
+    // Stands in for the signature of a table or column that did not exist
+    private static final String MISSING = "-";
+
+    private static class Entry {
+        final String m_inputHash;
+        final String m_generatorHash;
+        final Map<String, String> m_tables = new TreeMap<>();
+        final Map<String, String> m_columns = new TreeMap<>();
+        final Map<String, String> m_outputs = new TreeMap<>();
+
+        Entry(String inputHash, String generatorHash) {
+            m_inputHash = inputHash;
+            m_generatorHash = generatorHash;
+        }
+    }
+
+    private final Path m_path;
+    private final Map<String, Entry> m_entries = new TreeMap<>();
+
+    private BuildManifest(Path path) {
+        m_path = path;
+    }
+
+    public static BuildManifest load(String path) throws IOException {
+        BuildManifest manifest = new BuildManifest(Paths.get(path));
+        if (! Files.exists(manifest.m_path)) {
+            return manifest;
+        }
+
+        Entry entry = null;
+        for (String line : Files.readAllLines(manifest.m_path, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields[0].equals("input") && fields.length == 4) {
+                entry = new Entry(fields[2], fields[3]);
+                manifest.m_entries.put(fields[1], entry);
+            }
+            else if (fields.length == 3 && entry != null) {
+                if (fields[0].equals("table")) {
+                    entry.m_tables.put(fields[1], fields[2]);
+                }
+                else if (fields[0].equals("column")) {
+                    entry.m_columns.put(fields[1], fields[2]);
+                }
+                else if (fields[0].equals("output")) {
+                    entry.m_outputs.put(fields[1], fields[2]);
+                }
+            }
+            else {
+                // Something we don't understand, perhaps from an older version.
+                entry = null;
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Returns null if the input was last translated from the same contents and
+     * generator, none of the tables, views or columns it uses have changed, and
+     * all of the files it produced are still as they were written.  Otherwise
+     * returns a description of why it needs to be translated again.
+     */
+    public synchronized String getStaleReason(String inputPath, String inputHash, String generatorHash,
+            SqlAnalyzer analyzer) {
+        Entry entry = m_entries.get(inputPath);
+        if (entry == null) {
+            return "not translated before";
+        }
+
+        if (! entry.m_inputHash.equals(inputHash)) {
+            return "file changed";
+        }
+
+        if (! entry.m_generatorHash.equals(generatorHash)) {
+            return "translator changed";
+        }
+
+        for (Map.Entry<String, String> table : entry.m_tables.entrySet()) {
+            if (! table.getValue().equals(orMissing(analyzer.getTableSignature(table.getKey())))) {
+                return "table " + table.getKey() + " changed";
+            }
+        }
+
+        for (Map.Entry<String, String> column : entry.m_columns.entrySet()) {
+            String[] names = column.getKey().split("\\.", 2);
+            if (! column.getValue().equals(orMissing(analyzer.getColumnSignature(names[0], names[1])))) {
+                return "column " + column.getKey() + " changed";
+            }
+        }
+
+        for (Map.Entry<String, String> output : entry.m_outputs.entrySet()) {
+            Path outputPath = Paths.get(output.getKey());
+            try {
+                if (! Files.exists(outputPath)
+                        || ! ContentHash.of(Files.readAllBytes(outputPath)).equals(output.getValue())) {
+                    return output.getKey() + " modified";
+                }
+            }
+            catch (IOException ioExc) {
+                return output.getKey() + " unreadable";
+            }
+        }
+
+        return null;
+    }
+
+    public synchronized void record(String inputPath, String inputHash, String generatorHash,
+            Set<String> tables, Set<String> columns, SqlAnalyzer analyzer, List<Path> outputs) throws IOException {
+        Entry entry = new Entry(inputHash, generatorHash);
+        for (String table : tables) {
+            entry.m_tables.put(table, orMissing(analyzer.getTableSignature(table)));
+        }
+        for (String column : columns) {
+            String[] names = column.split("\\.", 2);
+            entry.m_columns.put(column, orMissing(analyzer.getColumnSignature(names[0], names[1])));
+        }
+        for (Path output : outputs) {
+            entry.m_outputs.put(output.toString(), ContentHash.of(Files.readAllBytes(output)));
+        }
+        m_entries.put(inputPath, entry);
+    }
+
+    private static String orMissing(String signature) {
+        return signature == null ? MISSING : signature;
+    }
+
+    /**
+     * The paths of the files produced from a PL/SQL file when it was last translated.
+     */
+    public synchronized List<String> getOutputs(String inputPath) {
+        Entry entry = m_entries.get(inputPath);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(entry.m_outputs.keySet());
+    }
+
+    public synchronized void forget(String inputPath) {
+        m_entries.remove(inputPath);
+    }
+
+    public synchronized void save() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Entry> mapEntry : m_entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            lines.add(String.join("\t", "input", mapEntry.getKey(), entry.m_inputHash, entry.m_generatorHash));
+            for (Map.Entry<String, String> table : entry.m_tables.entrySet()) {
+                lines.add(String.join("\t", "table", table.getKey(), table.getValue()));
+            }
+            for (Map.Entry<String, String> column : entry.m_columns.entrySet()) {
+                lines.add(String.join("\t", "column", column.getKey(), column.getValue()));
+            }
+            for (Map.Entry<String, String> output : entry.m_outputs.entrySet()) {
+                lines.add(String.join("\t", "output", output.getKey(), output.getValue()));
+            }
+        }
+
+        Path dir = m_path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "manifest-", ".tmp");
+        try {
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, m_path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A piece of generated code: one of the templates of voltdb-procedure.stg
+ * and the values of its attributes, which may themselves be Code.  The
+ * emitter builds a tree of these, and a CodeRenderer turns it into source.
+ *
+ * Attributes behave as they do for StringTemplate: adding a value to an
+ * attribute that already has one makes it a list, and a list is copied.
+ */
+public class Code {
+
+    public enum Template {
+        SRC_FILE("src_file", "header_comment", "package", "imported_pkgs", "class_def"),
+        CLASS_DEF("class_def", "name", "constant_decls", "sql_stmts", "methods"),
+        VARIABLE_DECL("variable_decl", "visibility", "is_static", "is_final", "var_type", "var_name", "init"),
+        EMPTY_LINE("empty_line"),
+        FREEFORM_LINE("freeform_line", "text"),
+        SQL_STMT("sql_stmt", "name", "java_string"),
+        RUN_METHOD("run_method", "ret_type", "args", "stmts"),
+        SLIST("slist", "stmts"),
+        QUEUE_SQL_STMT("queue_sql_stmt", "stmt_name", "params"),
+        EXECUTE_SQL_STMT("execute_sql_stmt", "var_name", "post_text"),
+        ASSIGNMENT_STMT("assignment_stmt", "lhs", "rhs"),
+        RETURN_STMT("return_stmt", "ret_val"),
+        IF_STMT("if_stmt", "cond", "then_block"),
+        WHILE_STMT("while_stmt", "cond", "body"),
+        FOR_STMT("for_stmt", "control", "body");
+
+        private final String m_name;
+        private final List<String> m_attributes;
+
+        Template(String name, String... attributes) {
+            m_name = name;
+            m_attributes = Arrays.asList(attributes);
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public List<String> getAttributes() {
+            return m_attributes;
+        }
+    }
+
+    /**
+     * A parameter of a generated method, with the properties that
+     * run_method reads as arg.type and arg.name.
+     */
+    public static class Param {
+        private final String m_type;
+        private final String m_name;
+
+        public Param(String type, String name) {
+            m_type = type;
+            m_name = name;
+        }
+
+        public String getType() {
+            return m_type;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+    }
+
+    private static final Object UNSET = new Object();
+
+    private final Template m_template;
+    private final Object[] m_values;
+
+    public Code(Template template) {
+        m_template = template;
+        m_values = new Object[template.getAttributes().size()];
+        Arrays.fill(m_values, UNSET);
+    }
+
+    public Template getTemplate() {
+        return m_template;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Code add(String name, Object value) {
+        int index = m_template.getAttributes().indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Template " + m_template.getName() + " has no attribute " + name);
+        }
+
+        if (value instanceof List) {
+            value = new ArrayList<>((List<?>) value);
+        }
+
+        Object current = m_values[index];
+        if (current == UNSET) {
+            m_values[index] = value;
+            return this;
+        }
+
+        List<Object> values;
+        if (current instanceof List) {
+            values = (List<Object>) current;
+        }
+        else {
+            values = new ArrayList<>();
+            values.add(current);
+        }
+
+        if (value instanceof List) {
+            values.addAll((List<?>) value);
+        }
+        else {
+            values.add(value);
+        }
+        m_values[index] = values;
+        return this;
+    }
+
+    public boolean isSet(String name) {
+        return m_values[m_template.getAttributes().indexOf(name)] != UNSET;
+    }
+
+    public Object get(String name) {
+        Object value = m_values[m_template.getAttributes().indexOf(name)];
+        return value == UNSET ? null : value;
+    }
+}
@@ -0,0 +1,9 @@
+package plsql2voltdb;
+
+/**
+ * Turns a tree of generated code into Java source.
+ */
+public interface CodeRenderer {
+
+    String render(Code code);
+}
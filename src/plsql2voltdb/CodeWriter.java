@@ -0,0 +1,305 @@
+package plsql2voltdb;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import plsql2voltdb.Code.Param;
+
+/**
+ * Writes generated code straight into a buffer in one pass, without
+ * interpreting templates.  The output is the same as TemplateRenderer's
+ * with the stock voltdb-procedure.stg, including its rules for
+ * indentation: an attribute on a line of its own is indented along with
+ * every line it produces, indentation is written only before text, and a
+ * line that such an attribute leaves empty is dropped.
+ *
+ * A writer reuses its buffer, so each thread should have its own.
+ */
+public class CodeWriter implements CodeRenderer {
+
+    private static final String NEWLINE = System.lineSeparator();
+    private static final String INDENT = "    ";
+
+    private static final ThreadLocal<CodeWriter> THREAD_WRITER = ThreadLocal.withInitial(CodeWriter::new);
+
+    private final StringBuilder m_buf = new StringBuilder();
+    private int m_indent = 0;
+    private boolean m_atLineStart = true;
+
+    /**
+     * The writer for the current thread.
+     */
+    public static CodeWriter get() {
+        return THREAD_WRITER.get();
+    }
+
+    @Override
+    public String render(Code code) {
+        m_buf.setLength(0);
+        m_indent = 0;
+        m_atLineStart = true;
+        writeCode(code);
+        return m_buf.toString();
+    }
+
+    private void writeCode(Code code) {
+        switch (code.getTemplate()) {
+        case SRC_FILE:
+            writeValue(code.get("header_comment"));
+            newline();
+            newline();
+            if (isTrue(code.get("package"))) {
+                write("package ");
+                writeValue(code.get("package"));
+                write(";");
+                newline();
+                newline();
+            }
+            write("import org.voltdb.SQLStmt;");
+            newline();
+            write("import org.voltdb.VoltProcedure;");
+            newline();
+            write("import org.voltdb.VoltTable;");
+            newline();
+            newline();
+            if (isTrue(code.get("imported_pkgs"))) {
+                boolean first = true;
+                for (Object pkg : (Iterable<?>) code.get("imported_pkgs")) {
+                    if (pkg != null) {
+                        if (! first) {
+                            newline();
+                        }
+                        write("import ");
+                        writeValue(pkg);
+                        write(";");
+                        first = false;
+                    }
+                }
+                newline();
+                newline();
+            }
+            writeValue(code.get("class_def"));
+            break;
+        case CLASS_DEF:
+            write("public class ");
+            writeValue(code.get("name"));
+            write(" extends VoltProcedure {");
+            newline();
+            newline();
+            writeIndentedLine(code.get("constant_decls"), "\n");
+            newline();
+            writeIndentedLine(code.get("sql_stmts"), "\n");
+            newline();
+            writeIndentedLine(code.get("methods"), "\n");
+            write("}");
+            break;
+        case VARIABLE_DECL:
+            if (isTrue(code.get("visibility"))) {
+                writeValue(code.get("visibility"));
+                write(" ");
+            }
+            if (isTrue(code.get("is_static"))) {
+                write("static ");
+            }
+            if (isTrue(code.get("is_final"))) {
+                write("final ");
+            }
+            writeValue(code.get("var_type"));
+            write(" ");
+            writeValue(code.get("var_name"));
+            if (isTrue(code.get("init"))) {
+                write(" = ");
+                writeValue(code.get("init"));
+            }
+            write(";");
+            break;
+        case EMPTY_LINE:
+            break;
+        case FREEFORM_LINE:
+            writeValue(code.get("text"));
+            break;
+        case SQL_STMT:
+            write("public final SQLStmt ");
+            writeValue(code.get("name"));
+            write(" = new SQLStmt(");
+            writeValue(code.get("java_string"));
+            write(");");
+            break;
+        case RUN_METHOD:
+            write("public ");
+            writeValue(code.get("ret_type"));
+            write(" run(");
+            writeArgs(code.get("args"));
+            write(") ");
+            writeValue(code.get("stmts"));
+            break;
+        case SLIST:
+            write("{");
+            newline();
+            writeIndentedLine(code.get("stmts"), "\n");
+            write("}");
+            break;
+        case QUEUE_SQL_STMT:
+            write("voltQueueSQL(");
+            writeValue(code.get("stmt_name"));
+            if (isTrue(code.get("params"))) {
+                write(", ");
+                writeValue(code.get("params"), ", ");
+            }
+            write(");");
+            break;
+        case EXECUTE_SQL_STMT:
+            if (isTrue(code.get("var_name"))) {
+                writeValue(code.get("var_name"));
+                write(" = ");
+            }
+            write("voltExecuteSQL()");
+            writeValue(code.get("post_text"));
+            write(";");
+            break;
+        case ASSIGNMENT_STMT:
+            writeValue(code.get("lhs"));
+            write(" = ");
+            writeValue(code.get("rhs"));
+            write(";");
+            break;
+        case RETURN_STMT:
+            write("return ");
+            writeValue(code.get("ret_val"));
+            write(";");
+            break;
+        case IF_STMT:
+            write("if (");
+            writeValue(code.get("cond"));
+            write(") ");
+            writeValue(code.get("then_block"));
+            newline();
+            break;
+        case WHILE_STMT:
+            write("while (");
+            writeValue(code.get("cond"));
+            write(") ");
+            writeValue(code.get("body"));
+            newline();
+            break;
+        case FOR_STMT:
+            write("for (");
+            writeValue(code.get("control"));
+            write(") ");
+            writeValue(code.get("body"));
+            newline();
+            break;
+        default:
+            throw new IllegalArgumentException("No writer for template " + code.getTemplate().getName());
+        }
+    }
+
+    private void writeArgs(Object args) {
+        if (args == null) {
+            return;
+        }
+
+        Iterable<?> params = args instanceof Iterable ? (Iterable<?>) args : Collections.singleton(args);
+        boolean first = true;
+        for (Object arg : params) {
+            if (arg != null) {
+                if (! first) {
+                    write(", ");
+                }
+                Param param = (Param) arg;
+                writeValue(param.getType());
+                write(" ");
+                writeValue(param.getName());
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Write an attribute that is alone on an indented line, then end the
+     * line unless the attribute wrote nothing.
+     */
+    private void writeIndentedLine(Object value, String separator) {
+        int start = m_buf.length();
+        m_indent += 1;
+        writeValue(value, separator);
+        m_indent -= 1;
+        if (m_buf.length() > start) {
+            newline();
+        }
+    }
+
+    private void writeValue(Object value) {
+        writeValue(value, null);
+    }
+
+    private void writeValue(Object value, String separator) {
+        if (value == null) {
+            return;
+        }
+
+        if (value instanceof Code) {
+            writeCode((Code) value);
+        }
+        else if (value instanceof Iterable) {
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (element != null) {
+                    if (! first && separator != null) {
+                        write(separator);
+                    }
+                    writeValue(element);
+                    first = false;
+                }
+            }
+        }
+        else {
+            write(value.toString());
+        }
+    }
+
+    // The truth of an attribute in an <if(...)>
+    private static boolean isTrue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Collection) {
+            return ! ((Collection<?>) value).isEmpty();
+        }
+        if (value instanceof Iterable) {
+            return ((Iterable<?>) value).iterator().hasNext();
+        }
+        return true;
+    }
+
+    private void newline() {
+        m_buf.append(NEWLINE);
+        m_atLineStart = true;
+    }
+
+    // Write text, indenting each line that has any and dropping carriage returns
+    private void write(String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                continue;
+            }
+
+            if (c == '\n') {
+                newline();
+                continue;
+            }
+
+            if (m_atLineStart) {
+                for (int j = 0; j < m_indent; ++j) {
+                    m_buf.append(INDENT);
+                }
+                m_atLineStart = false;
+            }
+            m_buf.append(c);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+
+/**
+ * Computes the value of a PL/SQL expression made only of numbers, strings,
+ * CONSTANTs whose values are known, parentheses, unary minus, + - * / and
+ * ||, so it can be written as a literal.  Integers are Longs, other numbers
+ * Doubles and strings Strings.  Anything else, integer division that isn't
+ * exact, and overflow leave the expression as it is.
+ */
+public class ConstantFolder {
+
+    private final List<String> m_tokens = new ArrayList<>();
+    private final Map<String, Var> m_vars;
+    private int m_pos = 0;
+
+    private ConstantFolder(TokenStream tokenStream, Map<String, Var> vars, ParserRuleContext expr) {
+        m_vars = vars;
+        for (int i = expr.getStart().getTokenIndex(); i <= expr.getStop().getTokenIndex(); ++i) {
+            Token token = tokenStream.get(i);
+            if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                m_tokens.add(token.getText());
+            }
+        }
+    }
+
+    /**
+     * The value of an expression, or null if it can't be computed when translating.
+     */
+    public static Object fold(TokenStream tokenStream, Map<String, Var> vars, ParserRuleContext expr) {
+        ConstantFolder folder = new ConstantFolder(tokenStream, vars, expr);
+        try {
+            Object value = folder.parseAdditive();
+            return folder.m_pos == folder.m_tokens.size() ? value : null;
+        }
+        catch (ArithmeticException | NumberFormatException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * A value as the given Java type, or null if it doesn't have that type.
+     */
+    public static Object convert(Object value, String javaType) {
+        if ("long".equals(javaType) && value instanceof Long) {
+            return value;
+        }
+        if ("double".equals(javaType) && value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if ("String".equals(javaType) && value instanceof String) {
+            return value;
+        }
+        return null;
+    }
+
+    public static String toJavaLiteral(Object value) {
+        if (value instanceof String) {
+            String escaped = ((String) value).replace("\\", "\\\\").replace("\"", "\\\"")
+                    .replace("\n", "\\n").replace("\r", "\\r");
+            return "\"" + escaped + "\"";
+        }
+        if (value instanceof Long) {
+            long l = (Long) value;
+            return l == (int) l ? Long.toString(l) : l + "L";
+        }
+        return value.toString();
+    }
+
+    /**
+     * A value as a SQL literal, or null for a value that should stay a
+     * parameter: a floating point number, whose literal the planner could
+     * read as a DECIMAL, or a string with characters the SQLStmt's Java
+     * string would need escaped.
+     */
+    public static String toSqlLiteral(Object value) {
+        if (value instanceof String && ((String) value).matches("[^\"\\\\\r\n]*")) {
+            return "'" + ((String) value).replace("'", "''") + "'";
+        }
+        if (value instanceof Long) {
+            return value.toString();
+        }
+        return null;
+    }
+
+    // Concatenation has the same precedence as addition in PL/SQL
+    private Object parseAdditive() {
+        Object value = parseMultiplicative();
+        while (value != null && m_pos < m_tokens.size()) {
+            String op = m_tokens.get(m_pos);
+            if (! op.equals("+") && ! op.equals("-") && ! op.equals("||")) {
+                break;
+            }
+
+            ++m_pos;
+            value = apply(op, value, parseMultiplicative());
+        }
+        return value;
+    }
+
+    private Object parseMultiplicative() {
+        Object value = parseUnary();
+        while (value != null && m_pos < m_tokens.size()) {
+            String op = m_tokens.get(m_pos);
+            if (! op.equals("*") && ! op.equals("/")) {
+                break;
+            }
+
+            ++m_pos;
+            value = apply(op, value, parseUnary());
+        }
+        return value;
+    }
+
+    private Object parseUnary() {
+        if (m_pos < m_tokens.size() && m_tokens.get(m_pos).equals("-")) {
+            ++m_pos;
+            return apply("-", 0L, parseUnary());
+        }
+        if (m_pos < m_tokens.size() && m_tokens.get(m_pos).equals("+")) {
+            ++m_pos;
+            Object value = parseUnary();
+            return value instanceof Number ? value : null;
+        }
+        return parsePrimary();
+    }
+
+    private Object parsePrimary() {
+        if (m_pos >= m_tokens.size()) {
+            return null;
+        }
+
+        String token = m_tokens.get(m_pos++);
+        if (token.equals("(")) {
+            Object value = parseAdditive();
+            if (m_pos >= m_tokens.size() || ! m_tokens.get(m_pos++).equals(")")) {
+                return null;
+            }
+            return value;
+        }
+        if (token.matches("\\d+")) {
+            return Long.parseLong(token);
+        }
+        if (token.matches("(\\d+\\.\\d*|\\.\\d+)([eE][+-]?\\d+)?|\\d+[eE][+-]?\\d+")) {
+            return Double.parseDouble(token);
+        }
+        if (token.length() >= 2 && token.startsWith("'") && token.endsWith("'")) {
+            return token.substring(1, token.length() - 1).replace("''", "'");
+        }
+
+        Var var = m_vars.get(token);
+        return var != null ? var.getConstantValue() : null;
+    }
+
+    private static Object apply(String op, Object lhs, Object rhs) {
+        if (lhs == null || rhs == null) {
+            return null;
+        }
+
+        if (op.equals("||")) {
+            if (lhs instanceof Double || rhs instanceof Double) {
+                // Oracle's formatting of numbers isn't Java's
+                return null;
+            }
+            return lhs.toString() + rhs.toString();
+        }
+
+        if (! (lhs instanceof Number) || ! (rhs instanceof Number)) {
+            return null;
+        }
+
+        if (lhs instanceof Long && rhs instanceof Long) {
+            long l = (Long) lhs;
+            long r = (Long) rhs;
+            switch (op) {
+            case "+":
+                return Math.addExact(l, r);
+            case "-":
+                return Math.subtractExact(l, r);
+            case "*":
+                return Math.multiplyExact(l, r);
+            default:
+                // PL/SQL division isn't integer division, so only an exact quotient stays an integer
+                return r != 0 && l % r == 0 && ! (l == Long.MIN_VALUE && r == -1) ? l / r : null;
+            }
+        }
+
+        double l = ((Number) lhs).doubleValue();
+        double r = ((Number) rhs).doubleValue();
+        double result;
+        switch (op) {
+        case "+":
+            result = l + r;
+            break;
+        case "-":
+            result = l - r;
+            break;
+        case "*":
+            result = l * r;
+            break;
+        default:
+            result = l / r;
+            break;
+        }
+        return Double.isInfinite(result) || Double.isNaN(result) ? null : result;
+    }
+}
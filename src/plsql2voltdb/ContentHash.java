@@ -0,0 +1,82 @@
+package plsql2voltdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Hex-encoded SHA-256 digests, used to key on-disk caches by content.
+ */
+public class ContentHash {
+
+    private ContentHash() {
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException exc) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public static String of(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Hash a file without reading all of it into memory.
+     */
+    public static String of(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buf = new byte[65536];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash every file under a directory, by its path relative to the
+     * directory and its contents, so that adding, removing, renaming or
+     * changing any of them changes the hash.
+     */
+    public static String ofTree(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        Collections.sort(files);
+
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            sb.append(dir.relativize(file).toString().replace('\\', '/')).append(' ').append(of(file)).append('\n');
+        }
+        return of(sb.toString());
+    }
+
+    public static String of(String text) {
+        return of(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,78 @@
+package plsql2voltdb;
+
+import java.util.List;
+
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Return;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+
+/**
+ * Leaves the DML of a cursor loop's rows queued so that the DML of many
+ * rows is executed together, when nothing in the loop needs it to have
+ * run: the body only queues DML whose results it doesn't read, runs no
+ * other SQL, not even conditionally, and can't return before the last
+ * batch is executed.
+ */
+public class DeferLoopSqlPass implements OptimizerPass {
+
+    @Override
+    public String getName() {
+        return "defer-loop-sql";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        deferIn(ir.getBody());
+    }
+
+    private void deferIn(List<Stmt> block) {
+        for (Stmt stmt : block) {
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                deferIn(nested);
+            }
+
+            if (stmt instanceof CursorLoop) {
+                CursorLoop loop = (CursorLoop) stmt;
+                loop.setDeferredSqlCount(getDeferrableSqlCount(loop.getBody()));
+            }
+        }
+    }
+
+    // The number of statements the body queues for each row, or 0 if they can't be deferred
+    private static int getDeferrableSqlCount(List<Stmt> body) {
+        if (containsReturn(body)) {
+            return 0;
+        }
+
+        int count = 0;
+        for (Stmt stmt : body) {
+            if (stmt instanceof SqlOp && ((SqlOp) stmt).isExecuted()) {
+                SqlOp op = (SqlOp) stmt;
+                if (! op.getDefs().isEmpty() || op.getStmt().isReadOnly()) {
+                    return 0;
+                }
+                ++count;
+            }
+            else if (stmt.executesSql()) {
+                return 0;
+            }
+        }
+
+        return count <= ProcedureEmitter.MAX_BATCH_SIZE ? count : 0;
+    }
+
+    private static boolean containsReturn(List<Stmt> block) {
+        for (Stmt stmt : block) {
+            if (stmt instanceof Return) {
+                return true;
+            }
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                if (containsReturn(nested)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -1,33 +1,207 @@
 package plsql2voltdb;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.TokenStreamRewriter;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.voltdb.plannodes.NodeSchema;
 import org.voltdb.plannodes.SchemaColumn;
 
-import plsql_parser.PlSqlParser.ExpressionContext;
+import plsql_parser.PlSqlParser.Additive_expressionContext;
+import plsql_parser.PlSqlParser.AtomContext;
+import plsql_parser.PlSqlParser.ConcatenationContext;
+import plsql_parser.PlSqlParser.ConstantContext;
+import plsql_parser.PlSqlParser.Equality_expressionContext;
 import plsql_parser.PlSqlParser.General_element_partContext;
 import plsql_parser.PlSqlParser.Id_expressionContext;
+import plsql_parser.PlSqlParser.Multiply_expressionContext;
+import plsql_parser.PlSqlParser.NumericContext;
 import plsql_parser.PlSqlParser.Quoted_stringContext;
+import plsql_parser.PlSqlParser.Relational_expressionContext;
 import plsql_parser.PlSqlParser.Relational_operatorContext;
+import plsql_parser.PlSqlParser.Unary_expressionContext;
 import plsql_parser.PlSqlParserBaseListener;
 
 public class ExpressionFormatter {
 
-    // This should use TokenStreamRewriter
+    // Also works out the Java type of each expression, so that arithmetic
+    // and comparisons on BigDecimals can be written as method calls
     private static class ExpressionFormattingListener extends PlSqlParserBaseListener {
         private final Map<String, Var> m_vars;
         private final TokenStreamRewriter m_rewriter;
+        private final Set<String> m_imports;
+        private final Map<ParserRuleContext, String> m_types = new HashMap<>();
 
-
-        ExpressionFormattingListener(Map<String, Var> vars, TokenStreamRewriter rewriter) {
+        ExpressionFormattingListener(Map<String, Var> vars, TokenStreamRewriter rewriter, Set<String> imports) {
             m_vars = vars;
             m_rewriter = rewriter;
+            m_imports = imports;
+        }
+
+        String getType(ParserRuleContext ctx) {
+            return m_types.get(ctx);
+        }
+
+        private String getText(ParserRuleContext ctx) {
+            return m_rewriter.getText(ctx.getSourceInterval());
+        }
+
+        // A rule that just wraps another has its type
+        @Override
+        public void exitEveryRule(ParserRuleContext ctx) {
+            if (! m_types.containsKey(ctx) && ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext) {
+                m_types.put(ctx, m_types.get(ctx.getChild(0)));
+            }
+        }
+
+        @Override
+        public void exitNumeric(NumericContext ctx) {
+            m_types.put(ctx, ctx.UNSIGNED_INTEGER() != null ? "long" : "double");
+            // Java's integer literals are ints unless marked as longs, and
+            // one of ten digits or more may not fit in an int
+            if (ctx.UNSIGNED_INTEGER() != null && ctx.getText().length() >= 10) {
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), ctx.getText() + "L");
+            }
+        }
+
+        @Override
+        public void exitConstant(ConstantContext ctx) {
+            if (ctx.NULL() != null) {
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), "null");
+            }
+        }
+
+        @Override
+        public void exitAtom(AtomContext ctx) {
+            if (ctx.expression_or_vector() != null) {
+                m_types.put(ctx, m_types.get(ctx.expression_or_vector()));
+            }
+        }
+
+        @Override
+        public void exitUnary_expression(Unary_expressionContext ctx) {
+            String sign = ctx.getStart().getText();
+            if (ctx.unary_expression() == null || ! ("-".equals(sign) || "+".equals(sign))) {
+                return;
+            }
+
+            String type = m_types.get(ctx.unary_expression());
+            if ("BigDecimal".equals(type) && "-".equals(sign)) {
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), getText(ctx.unary_expression()) + ".negate()");
+            }
+            m_types.put(ctx, type);
+        }
+
+        @Override
+        public void exitMultiply_expression(Multiply_expressionContext ctx) {
+            if (! ctx.op.isEmpty()) {
+                formatArithmetic(ctx, ctx.datetime_expression(), ctx.op);
+            }
+        }
+
+        @Override
+        public void exitAdditive_expression(Additive_expressionContext ctx) {
+            if (! ctx.op.isEmpty()) {
+                formatArithmetic(ctx, ctx.multiply_expression(), ctx.op);
+            }
+        }
+
+        @Override
+        public void exitConcatenation(ConcatenationContext ctx) {
+            if (ctx.additive_expression().size() > 1) {
+                m_types.put(ctx, "String");
+            }
+        }
+
+        // Java's arithmetic on longs and doubles, or BigDecimal's if any operand is one
+        private void formatArithmetic(ParserRuleContext ctx, List<? extends ParserRuleContext> operands, List<Token> ops) {
+            String type = "long";
+            for (ParserRuleContext operand : operands) {
+                type = getArithmeticType(type, m_types.get(operand));
+            }
+            m_types.put(ctx, type);
+            if (! "BigDecimal".equals(type)) {
+                return;
+            }
+
+            String text = toBigDecimal(operands.get(0));
+            for (int i = 0; i < ops.size(); ++i) {
+                String operand = toBigDecimal(operands.get(i + 1));
+                switch (ops.get(i).getText()) {
+                case "+":
+                    text += ".add(" + operand + ")";
+                    break;
+                case "-":
+                    text += ".subtract(" + operand + ")";
+                    break;
+                case "*":
+                    text += ".multiply(" + operand + ")";
+                    break;
+                default:
+                    // A quotient like 1/3 doesn't have an exact decimal value
+                    text += ".divide(" + operand + ", MathContext.DECIMAL128)";
+                    m_imports.add("java.math.MathContext");
+                    break;
+                }
+            }
+            m_rewriter.replace(ctx.getStart(), ctx.getStop(), text);
+        }
+
+        private String toBigDecimal(ParserRuleContext ctx) {
+            String type = m_types.get(ctx);
+            String text = getText(ctx);
+            if ("BigDecimal".equals(type)) {
+                return text;
+            }
+            m_imports.add("java.math.BigDecimal");
+            return "BigDecimal.valueOf(" + text + ")";
+        }
+
+        @Override
+        public void exitRelational_expression(Relational_expressionContext ctx) {
+            if (ctx.relational_operator() == null) {
+                return;
+            }
+
+            m_types.put(ctx, "boolean");
+            ParserRuleContext lhs = ctx.relational_expression(0);
+            ParserRuleContext rhs = ctx.relational_expression(1);
+            if (! "BigDecimal".equals(m_types.get(lhs)) && ! "BigDecimal".equals(m_types.get(rhs))) {
+                return;
+            }
+
+            // Nothing compares true with NULL
+            String cond = toBigDecimal(lhs) + ".compareTo(" + toBigDecimal(rhs) + ") "
+                    + getText(ctx.relational_operator()) + " 0";
+            for (ParserRuleContext operand : new ParserRuleContext[] { rhs, lhs }) {
+                String text = getText(operand);
+                if ("BigDecimal".equals(m_types.get(operand)) && text.matches("\\w+")) {
+                    cond = text + " != null && " + cond;
+                }
+            }
+            m_rewriter.replace(ctx.getStart(), ctx.getStop(), "(" + cond + ")");
+        }
+
+        // x IS NULL and x IS NOT NULL, for the types that can hold a Java null
+        @Override
+        public void exitEquality_expression(Equality_expressionContext ctx) {
+            if (ctx.getChildCount() < 3 || ctx.getChildCount() > 4 || ctx.NULL().isEmpty()) {
+                return;
+            }
+
+            String type = m_types.get(ctx.multiset_expression());
+            if ("BigDecimal".equals(type) || "String".equals(type) || "byte[]".equals(type)) {
+                String op = ctx.NOT().isEmpty() ? " == null" : " != null";
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), getText(ctx.multiset_expression()) + op);
+                m_types.put(ctx, "boolean");
+            }
         }
 
         @Override
@@ -65,12 +239,20 @@ public class ExpressionFormatter {
 
             String newString = "\"" + orig.substring(1, len - 1) + "\"";
             m_rewriter.replace(ctx.getStart(), ctx.getStop(), newString);
+            m_types.put(ctx, "String");
         }
 
         @Override
         public void exitGeneral_element_part(General_element_partContext ctx) {
             List<Id_expressionContext> idCtxs = ctx.id_expression();
-            if (idCtxs.size() == 2) {
+            Var collection = m_vars.get(idCtxs.get(0).getText());
+            if (collection != null && collection.isCollection()) {
+                formatCollectionReference(ctx, collection);
+            }
+            else if (idCtxs.size() == 1 && collection != null) {
+                m_types.put(ctx, collection.getJavaType());
+            }
+            else if (idCtxs.size() == 2) {
                 // See if the LHS ID is a VoltTable.  If so
                 // Generate an accessor.
                 String lhsId = idCtxs.get(0).getText();
@@ -80,11 +262,73 @@ public class ExpressionFormatter {
                     // TODO: compile the SQL statement to figure out
                     // the type of accessor to generate!
                     String accessor = getVoltTableAccessor(v.getSchema(), rhsId);
-                    m_rewriter.replace(idCtxs.get(1).getStart(), idCtxs.get(1).getStop(), accessor);
+                    if (accessor != null) {
+                        m_rewriter.replace(idCtxs.get(1).getStart(), idCtxs.get(1).getStop(), accessor);
+                        m_types.put(ctx, getColumnJavaType(v.getSchema(), rhsId));
+                    }
                 }
 
             }
         }
+
+        // An element "coll(i)" or the attribute "coll.COUNT", "coll.FIRST" or "coll.LAST"
+        private void formatCollectionReference(General_element_partContext ctx, Var collection) {
+            List<Id_expressionContext> idCtxs = ctx.id_expression();
+            String name = collection.getName();
+            if (idCtxs.size() == 1 && ctx.function_argument() != null
+                    && ctx.function_argument().argument().size() == 1) {
+                String index = m_rewriter.getText(ctx.function_argument().argument(0).getSourceInterval());
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), formatElement(name, index));
+                m_types.put(ctx, collection.getElementJavaType());
+            }
+            else if (idCtxs.size() == 2 && ctx.function_argument() == null) {
+                String attribute = formatAttribute(name, idCtxs.get(1).getText());
+                if (attribute != null) {
+                    m_rewriter.replace(ctx.getStart(), ctx.getStop(), attribute);
+                    m_types.put(ctx, "long");
+                }
+            }
+        }
+    }
+
+    /**
+     * Java for element index of a PL/SQL collection held in an array.
+     * PL/SQL collections are indexed from 1.
+     */
+    public static String formatElement(String collection, String index) {
+        if (index.matches("\\w+")) {
+            return collection + "[(int) " + index + " - 1]";
+        }
+        return collection + "[(int) (" + index + ") - 1]";
+    }
+
+    /**
+     * Java for the array of a PL/SQL collection grown, if need be, to hold
+     * the element index.  The new elements are zero or null.
+     */
+    public static String formatGrowth(String collection, String index) {
+        if (! index.matches("\\w+")) {
+            index = "(" + index + ")";
+        }
+        return "Arrays.copyOf(" + collection + ", Math.max(" + collection + ".length, (int) " + index + "))";
+    }
+
+    /**
+     * Java for an attribute of a PL/SQL collection held in an array, or null
+     * if it isn't one that can be translated.  Collections are dense, so the
+     * last index is the count.  FIRST and LAST of an empty collection are NULL.
+     */
+    public static String formatAttribute(String collection, String attribute) {
+        switch (attribute.toUpperCase()) {
+        case "COUNT":
+            return collection + ".length";
+        case "FIRST":
+            return "(" + collection + ".length > 0 ? 1L : null)";
+        case "LAST":
+            return "(" + collection + ".length > 0 ? (long) " + collection + ".length : null)";
+        default:
+            return null;
+        }
     }
 
     public static String formatAsJavaString(String rawString) {
@@ -110,31 +354,75 @@ public class ExpressionFormatter {
         return String.join("\n", stringLines);
     }
 
-    public static String format(TokenStream tokenStream, Map<String, Var> vars, ExpressionContext condition) {
+    // The type of BigDecimal, double and long arithmetic, or null if it isn't numeric
+    private static String getArithmeticType(String lhs, String rhs) {
+        if (lhs == null || rhs == null) {
+            return null;
+        }
+        for (String type : new String[] { "BigDecimal", "double", "long" }) {
+            if (type.equals(lhs) || type.equals(rhs)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Java for a PL/SQL expression.  Any packages the Java needs imported,
+     * for BigDecimal arithmetic, are added to imports.
+     */
+    public static String format(TokenStream tokenStream, Map<String, Var> vars, ParserRuleContext expr, Set<String> imports) {
+        return format(tokenStream, vars, expr, null, imports);
+    }
+
+    /**
+     * Java for a PL/SQL expression, converted to the given Java type if it
+     * is a number of another type that Java doesn't convert implicitly.
+     */
+    public static String format(TokenStream tokenStream, Map<String, Var> vars, ParserRuleContext expr,
+            String javaType, Set<String> imports) {
         TokenStreamRewriter rewriter = new TokenStreamRewriter(tokenStream);
         ParseTreeWalker walker = new ParseTreeWalker();
-        ExpressionFormattingListener listener = new ExpressionFormattingListener(vars, rewriter);
-        walker.walk(listener, condition);
+        ExpressionFormattingListener listener = new ExpressionFormattingListener(vars, rewriter, imports);
+        walker.walk(listener, expr);
 
-        return rewriter.getText(condition.getSourceInterval());
+        String text = rewriter.getText(expr.getSourceInterval());
+        if (javaType == null) {
+            return text;
+        }
+        String converted = TypeTranslator.convert(text, listener.getType(expr), javaType);
+        if (! converted.equals(text)) {
+            imports.addAll(TypeTranslator.getImports(javaType));
+        }
+        return converted;
     }
 
     public static String getVoltTableAccessor(NodeSchema outputSchema, int index) {
         String accessor = null;
         SchemaColumn column = outputSchema.getColumns().get(index);
-        String javaType = TypeTranslator.translate(column.getType());
-        if ("long".equals(javaType)) {
-            accessor = "getLong(" + index + ")";
-        }
-        else if ("String".equals(javaType)) {
-            accessor = "getString(" + index + ")";
+        String method = TypeTranslator.getVoltTableAccessor(column.getType());
+        if (method != null) {
+            accessor = method + "(" + index + ")";
         }
 
         return accessor;
     }
 
-    private static String getVoltTableAccessor(NodeSchema outputSchema, String colName) {
-        String accessor = null;
+    public static String getVoltTableAccessor(NodeSchema outputSchema, String colName) {
+        int index = getColumnIndex(outputSchema, colName);
+        return index < 0 ? null : getVoltTableAccessor(outputSchema, index);
+    }
+
+    /**
+     * The Java type of a column of a result, or null if there isn't one
+     * of that name.
+     */
+    public static String getColumnJavaType(NodeSchema outputSchema, String colName) {
+        int index = getColumnIndex(outputSchema, colName);
+        return index < 0 ? null : TypeTranslator.translate(outputSchema.getColumns().get(index).getType());
+    }
+
+    private static int getColumnIndex(NodeSchema outputSchema, String colName) {
         int index = 0;
         // Could be duplicate column names.. in which case we would want to throw an error?
         for (SchemaColumn col : outputSchema.getColumns()) {
@@ -145,15 +433,10 @@ public class ExpressionFormatter {
             ++index;
         }
 
-        SchemaColumn column = outputSchema.getColumns().get(index);
-        String javaType = TypeTranslator.translate(column.getType());
-        if ("long".equals(javaType)) {
-            accessor = "getLong(" + index + ")";
-        }
-        else if ("String".equals(javaType)) {
-            accessor = "getString(" + index + ")";
+        if (index == outputSchema.getColumns().size()) {
+            return -1;
         }
 
-        return accessor;
+        return index;
     }
 }
@@ -0,0 +1,103 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Declare;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+
+/**
+ * Moves the queries of a cursor loop body that get the same results on
+ * every row out of the loop.  Those are queries that aren't nested in
+ * other statements of the body, whose parameters come from variables the
+ * loop doesn't assign, and that read neither tables the loop writes nor
+ * views materialized from them.  They
+ * are executed once, before the loop's own query so they can share its
+ * batch, into a VoltTable variable that the body reads their results from.
+ */
+public class HoistQueriesPass implements OptimizerPass {
+
+    @Override
+    public String getName() {
+        return "hoist-invariant-queries";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        hoistIn(ir, ir.getBody());
+    }
+
+    private void hoistIn(ProcedureIr ir, List<Stmt> block) {
+        for (int i = 0; i < block.size(); ++i) {
+            Stmt stmt = block.get(i);
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                hoistIn(ir, nested);
+            }
+
+            if (! (stmt instanceof CursorLoop)) {
+                continue;
+            }
+
+            List<SqlOp> hoisted = hoist(ir, (CursorLoop) stmt);
+            block.addAll(getLoopStart(block, i), hoisted);
+            i += hoisted.size();
+        }
+    }
+
+    // The position of the declaration of the loop's row variable, before the loop's query
+    private static int getLoopStart(List<Stmt> block, int loopIndex) {
+        String rowVar = ((CursorLoop) block.get(loopIndex)).getRowVar();
+        int start = loopIndex;
+        if (start > 0 && block.get(start - 1) instanceof SqlOp
+                && rowVar.equals(((SqlOp) block.get(start - 1)).getTableVar())) {
+            --start;
+        }
+        if (start > 0 && block.get(start - 1) instanceof Declare
+                && rowVar.equals(((Declare) block.get(start - 1)).getName())) {
+            --start;
+        }
+        return start;
+    }
+
+    private List<SqlOp> hoist(ProcedureIr ir, CursorLoop loop) {
+        List<Stmt> body = loop.getBody();
+        Set<String> loopDefs = new TreeSet<>(loop.getDefs());
+        Set<String> loopModifiedTables = loop.getModifiedTables();
+
+        List<SqlOp> hoisted = new ArrayList<>();
+        for (int i = 0; i < body.size(); ++i) {
+            if (! (body.get(i) instanceof SqlOp)) {
+                continue;
+            }
+
+            SqlOp op = (SqlOp) body.get(i);
+            if (! op.isExecuted() || ! op.getStmt().isReadOnly()
+                    || ! Collections.disjoint(op.getStmt().getReferencedVariables(), loopDefs)
+                    || ! Collections.disjoint(op.getStmt().getUnderlyingTables(), loopModifiedTables)) {
+                continue;
+            }
+
+            if (op.getTableVar() != null) {
+                // Already hoisted out of a nested loop
+                if (ir.isCachedTable(op.getTableVar())) {
+                    hoisted.add(op);
+                    body.remove(i--);
+                }
+                continue;
+            }
+
+            String table = op.getKeptTable() != null ? op.getKeptTable() : ir.newCachedTable();
+            op.setKeptTable(null);
+            op.setTableVar(table);
+            hoisted.add(op);
+            body.set(i, ir.newReuse(op.getStmt(), table));
+        }
+
+        return hoisted;
+    }
+}
@@ -0,0 +1,224 @@
+package plsql2voltdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.types.PlanNodeType;
+
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+import plsql2voltdb.SqlAnalyzer.ColumnPredicate;
+
+/**
+ * Suggests indexes from the predicates of translated statements.  For each
+ * table a statement filters on, a candidate index has the columns compared
+ * for equality followed by one column compared with a range.  Tables that
+ * already have an index or primary key starting with one of those columns
+ * are left alone, as are tables the statement's plan doesn't scan
+ * sequentially anyway.  Candidates are ranked by how many statements would
+ * use them, and can be confirmed by planning the statements again with the
+ * index added to the DDL.  A candidate that doesn't avoid a sequential scan
+ * in any of its statements is listed separately, commented out.
+ */
+public class IndexAdvisor {
+
+    private static class Candidate {
+        final String m_table;
+        final List<String> m_columns;
+        final List<String> m_statements = new ArrayList<>();
+        final List<String> m_sql = new ArrayList<>();
+        int m_confirmed = -1;
+
+        Candidate(String table, List<String> columns) {
+            m_table = table;
+            m_columns = columns;
+        }
+
+        String getDdl() {
+            return "CREATE INDEX " + getIndexName() + " ON " + m_table + " (" + String.join(", ", m_columns) + ");";
+        }
+
+        String getIndexName() {
+            return "ADV_" + m_table + "_" + String.join("_", m_columns);
+        }
+
+        boolean isRejected() {
+            return m_confirmed == 0;
+        }
+    }
+
+    private final SqlAnalyzer m_analyzer;
+    private final Map<String, Candidate> m_candidates = new LinkedHashMap<>();
+
+    IndexAdvisor(SqlAnalyzer analyzer) {
+        m_analyzer = analyzer;
+    }
+
+    public synchronized void add(String stmtName, AnalyzedSqlStmt stmt) {
+        Map<String, List<String>> equalityColumns = new LinkedHashMap<>();
+        Map<String, List<String>> rangeColumns = new LinkedHashMap<>();
+        for (ColumnPredicate pred : stmt.getPredicates()) {
+            // The values of an INSERT aren't lookups
+            if ("insert".equals(stmt.getNamePrefix()) && pred.getTable().equals(stmt.getModifiedTable())) {
+                continue;
+            }
+
+            Map<String, List<String>> columnsByTable = pred.isEquality() ? equalityColumns : rangeColumns;
+            if (! columnsByTable.containsKey(pred.getTable())) {
+                columnsByTable.put(pred.getTable(), new ArrayList<>());
+                equalityColumns.putIfAbsent(pred.getTable(), new ArrayList<>());
+            }
+            if (! columnsByTable.get(pred.getTable()).contains(pred.getColumn())) {
+                columnsByTable.get(pred.getTable()).add(pred.getColumn());
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : equalityColumns.entrySet()) {
+            String table = entry.getKey();
+            List<String> columns = new ArrayList<>(entry.getValue());
+            for (String column : rangeColumns.getOrDefault(table, new ArrayList<>())) {
+                if (! columns.contains(column)) {
+                    columns.add(column);
+                    break;
+                }
+            }
+
+            if (columns.isEmpty() || hasUsableIndex(table, columns) || ! scansSequentially(stmt.getPlan(), table)) {
+                continue;
+            }
+
+            String key = table + "(" + String.join(",", columns) + ")";
+            Candidate candidate = m_candidates.get(key);
+            if (candidate == null) {
+                candidate = new Candidate(table, columns);
+                m_candidates.put(key, candidate);
+            }
+            candidate.m_statements.add(stmtName);
+            candidate.m_sql.add(stmt.getRewrittenStmt());
+        }
+    }
+
+    // An existing index helps if it leads with one of the filtered columns
+    private boolean hasUsableIndex(String table, List<String> columns) {
+        for (List<String> indexColumns : m_analyzer.getIndexColumns(table)) {
+            if (! indexColumns.isEmpty() && columns.contains(indexColumns.get(0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plan each candidate's statements against the DDL with the index added,
+     * counting the statements that no longer scan the table sequentially.
+     */
+    public synchronized void confirm(String ddlPath) throws Exception {
+        String ddl = new String(Files.readAllBytes(Paths.get(ddlPath)), StandardCharsets.UTF_8);
+        for (Candidate candidate : m_candidates.values()) {
+            Path ddlWithIndex = Files.createTempFile("advisor-", ".sql");
+            try {
+                Files.write(ddlWithIndex, (ddl + "\n" + candidate.getDdl() + "\n").getBytes(StandardCharsets.UTF_8));
+                StandAlonePlanner planner = new StandAlonePlanner(ddlWithIndex.toString(), candidate.m_sql.size());
+                candidate.m_confirmed = 0;
+                for (String sql : candidate.m_sql) {
+                    if (! scansSequentially(planner.plan(sql), candidate.m_table)) {
+                        ++candidate.m_confirmed;
+                    }
+                }
+            }
+            finally {
+                Files.deleteIfExists(ddlWithIndex);
+            }
+        }
+    }
+
+    private static boolean scansSequentially(CompiledPlan plan, String table) {
+        return scansSequentially(plan.rootPlanGraph, table)
+                || (plan.subPlanGraph != null && scansSequentially(plan.subPlanGraph, table));
+    }
+
+    private static boolean scansSequentially(AbstractPlanNode node, String table) {
+        if (node.getPlanNodeType() == PlanNodeType.SEQSCAN
+                && table.equalsIgnoreCase(((AbstractScanPlanNode) node).getTargetTableName())) {
+            return true;
+        }
+
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            if (scansSequentially(node.getChild(i), table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of suggested indexes, not counting rejected candidates.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Candidate candidate : m_candidates.values()) {
+            if (! candidate.isRejected()) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Write the suggested indexes as DDL, most widely used first, followed
+     * by the rejected candidates commented out.  The order doesn't depend
+     * on the order the statements were added in.
+     */
+    public synchronized void save(String path) throws IOException {
+        List<Candidate> ranked = new ArrayList<>(m_candidates.values());
+        ranked.sort(Comparator.comparingInt((Candidate c) -> -c.m_statements.size())
+                .thenComparingInt(c -> c.m_columns.size())
+                .thenComparing(Candidate::getIndexName));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("-- Indexes suggested by plsqltranslator, most widely used first");
+        for (Candidate candidate : ranked) {
+            if (! candidate.isRejected()) {
+                addCandidate(lines, candidate, candidate.getDdl());
+            }
+        }
+
+        if (size() < ranked.size()) {
+            lines.add("");
+            lines.add("-- Not suggested, since planning with the index avoided no sequential scans");
+            for (Candidate candidate : ranked) {
+                if (candidate.isRejected()) {
+                    addCandidate(lines, candidate, "-- " + candidate.getDdl());
+                }
+            }
+        }
+
+        Files.write(Paths.get(path), lines, StandardCharsets.UTF_8);
+    }
+
+    private static void addCandidate(List<String> lines, Candidate candidate, String ddl) {
+        List<String> statements = new ArrayList<>(candidate.m_statements);
+        Collections.sort(statements);
+
+        lines.add("");
+        int numStatements = statements.size();
+        lines.add("-- Used by " + numStatements + (numStatements == 1 ? " statement: " : " statements: ")
+                + String.join(", ", statements));
+        if (candidate.m_confirmed >= 0) {
+            lines.add("-- Planning with the index avoided a sequential scan in "
+                    + candidate.m_confirmed + " of " + numStatements);
+        }
+        lines.add(ddl);
+    }
+}
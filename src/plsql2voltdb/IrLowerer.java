@@ -0,0 +1,487 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import plsql2voltdb.Code.Template;
+import plsql2voltdb.ProcedureIr.Assign;
+import plsql2voltdb.ProcedureIr.Comment;
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Declare;
+import plsql2voltdb.ProcedureIr.Forall;
+import plsql2voltdb.ProcedureIr.If;
+import plsql2voltdb.ProcedureIr.Return;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+import plsql2voltdb.SqlAnalyzer.RowCount;
+
+/**
+ * Turns the IR of a procedure, after the optimizer passes, into the
+ * generated code of its VoltProcedure class.
+ */
+public class IrLowerer {
+
+    private final ProcedureIr m_ir;
+    private int m_batchCount = 0;
+    private int m_queuedCount = 0;
+
+    public IrLowerer(ProcedureIr ir) {
+        m_ir = ir;
+    }
+
+    /**
+     * The class definition, with a SQLStmt for each of the given statements,
+     * which must be the ones the IR named.
+     */
+    public Code lowerClass(Map<String, AnalyzedSqlStmt> statements) {
+        Code classDef = new Code(Template.CLASS_DEF);
+        classDef.add("name", m_ir.getName());
+
+        for (Declare constant : m_ir.getConstants()) {
+            Code decl = getVarDeclST(constant.getJavaType(), constant.getName(), constant.getInit());
+            decl.add("is_static", true);
+            decl.add("is_final", true);
+            classDef.add("constant_decls", decl);
+        }
+
+        for (Map.Entry<String, AnalyzedSqlStmt> entry : statements.entrySet()) {
+            Code sqlStmtST = new Code(Template.SQL_STMT);
+            sqlStmtST.add("name", entry.getKey());
+            sqlStmtST.add("java_string", ExpressionFormatter.formatAsJavaString(entry.getValue().getRewrittenStmt()));
+            classDef.add("sql_stmts", sqlStmtST);
+        }
+
+        Code runMethod = new Code(Template.RUN_METHOD);
+        Var output = m_ir.getOutput();
+        runMethod.add("ret_type", output.getJavaType());
+        for (Var param : m_ir.getParameters()) {
+            runMethod.add("args", new Code.Param(param.getJavaType(), param.getName()));
+        }
+
+        List<Code> methodStmts = lowerBlock(m_ir.getBody());
+
+        // Declare the output and the procedure's variables at the beginning
+        List<Code> allStmts = new ArrayList<>();
+        allStmts.add(getVarDeclST(output.getJavaType(), output.getName(), null));
+        allStmts.add(getVarDeclST("VoltTable", "vt", null));
+        for (String table : m_ir.getCachedTables()) {
+            allStmts.add(getVarDeclST("VoltTable", table, null));
+        }
+        for (Declare local : m_ir.getLocals()) {
+            allStmts.add(getVarDeclST(local.getJavaType(), local.getName(), local.getInit()));
+        }
+
+        allStmts.add(new Code(Template.EMPTY_LINE));
+
+        // Add the final return statement
+        Code returnStmt = new Code(Template.RETURN_STMT);
+        returnStmt.add("ret_val", output.getName());
+        methodStmts.add(returnStmt);
+        allStmts.addAll(methodStmts);
+
+        Code slist = new Code(Template.SLIST);
+        slist.add("stmts", allStmts);
+        runMethod.add("stmts", slist);
+        classDef.add("methods", runMethod);
+        return classDef;
+    }
+
+    /**
+     * Turn a block into code, queuing the SQL statements of each batch
+     * together so they run with a single voltExecuteSQL.  Nested blocks are
+     * lowered first.
+     */
+    private List<Code> lowerBlock(List<Stmt> block) {
+        Map<Stmt, List<Code>> lowered = new IdentityHashMap<>();
+        for (Stmt stmt : block) {
+            if (! (stmt instanceof SqlOp)) {
+                lowered.put(stmt, lowerStmt(stmt));
+            }
+        }
+
+        List<Code> stmts = new ArrayList<>();
+        Map<List<SqlOp>, String> resultsVars = new IdentityHashMap<>();
+        for (Stmt stmt : block) {
+            if (! (stmt instanceof SqlOp)) {
+                stmts.addAll(lowered.get(stmt));
+                continue;
+            }
+
+            SqlOp op = (SqlOp) stmt;
+            if (! op.isExecuted()) {
+                addReuse(stmts, op);
+                continue;
+            }
+
+            List<SqlOp> batch = op.getBatch();
+            if (batch == null || batch.size() == 1) {
+                stmts.add(getQueueSqlST(op));
+                addResultExtraction(stmts, op, null);
+                continue;
+            }
+
+            if (batch.get(0) == op) {
+                for (SqlOp member : batch) {
+                    stmts.add(getQueueSqlST(member));
+                }
+                String resultsVar = "sqlResults" + m_batchCount++;
+                resultsVars.put(batch, resultsVar);
+                stmts.add(getVarDeclST("VoltTable[]", resultsVar, "voltExecuteSQL()"));
+            }
+
+            addResultExtraction(stmts, op, resultsVars.get(batch) + "[" + batch.indexOf(op) + "]");
+        }
+
+        return stmts;
+    }
+
+    // The code of a statement other than SQL
+    private List<Code> lowerStmt(Stmt stmt) {
+        List<Code> stmts = new ArrayList<>();
+        if (stmt instanceof Comment) {
+            Code commentST = new Code(Template.FREEFORM_LINE);
+            commentST.add("text", ((Comment) stmt).getText());
+            stmts.add(commentST);
+        }
+        else if (stmt instanceof Declare) {
+            Declare decl = (Declare) stmt;
+            stmts.add(getVarDeclST(decl.getJavaType(), decl.getName(), decl.getInit()));
+        }
+        else if (stmt instanceof Assign) {
+            stmts.add(getAssignmentST(((Assign) stmt).getLhs(), ((Assign) stmt).getRhs()));
+        }
+        else if (stmt instanceof Return) {
+            Code returnStmt = new Code(Template.RETURN_STMT);
+            returnStmt.add("ret_val", ((Return) stmt).getVar());
+            stmts.add(returnStmt);
+        }
+        else if (stmt instanceof If) {
+            Code stmtList = new Code(Template.SLIST);
+            stmtList.add("stmts", lowerBlock(((If) stmt).getThen()));
+            Code ifStmt = new Code(Template.IF_STMT);
+            ifStmt.add("cond", ((If) stmt).getCond());
+            ifStmt.add("then_block", stmtList);
+            stmts.add(ifStmt);
+        }
+        else if (stmt instanceof CursorLoop) {
+            lowerCursorLoop(stmts, (CursorLoop) stmt);
+        }
+        else if (stmt instanceof Forall) {
+            lowerForall(stmts, (Forall) stmt);
+        }
+        else {
+            throw new IllegalArgumentException("Cannot lower " + stmt.describe());
+        }
+        return stmts;
+    }
+
+    /*
+     * VoltTable <row-var>;
+     * voltQueueSQL(<sql-stmt>);
+     * <row-var> = voltExecuteSQL()[0];
+     * while (<row-var>.advanceRow()) {
+     *     ...<row-var>.get<String | Long>(<index>)...
+     * }
+     *
+     * The declaration and query come before the loop in the IR.  If the
+     * body's DML is deferred, it's executed for many rows together:
+     *
+     * int queued0 = 0;
+     * while (<row-var>.advanceRow()) {
+     *     ...
+     *     voltQueueSQL(<dml>, ...);
+     *     if (++queued0 % <rows-per-batch> == 0) {
+     *         voltExecuteSQL();
+     *     }
+     * }
+     * if (queued0 % <rows-per-batch> != 0) {
+     *     voltExecuteSQL();
+     * }
+     *
+     * If the query returns at most one row, the body is run for it, if any:
+     *
+     * if (<row-var>.advanceRow()) {
+     *     ...
+     * }
+     */
+    private void lowerCursorLoop(List<Code> stmts, CursorLoop loop) {
+        Code stmtList = new Code(Template.SLIST);
+        String counter = null;
+        int rowsPerBatch = 0;
+        if (loop.getDeferredSqlCount() > 0) {
+            List<Code> body = new ArrayList<>();
+            for (Stmt stmt : loop.getBody()) {
+                if (stmt instanceof SqlOp && ((SqlOp) stmt).isExecuted()) {
+                    body.add(getQueueSqlST((SqlOp) stmt));
+                }
+                else if (stmt instanceof SqlOp) {
+                    addReuse(body, (SqlOp) stmt);
+                }
+                else {
+                    body.addAll(lowerStmt(stmt));
+                }
+            }
+            counter = "queued" + m_queuedCount++;
+            rowsPerBatch = ProcedureEmitter.MAX_BATCH_SIZE / loop.getDeferredSqlCount();
+            body.add(getExecuteEveryST(counter, rowsPerBatch));
+            stmtList.add("stmts", body);
+            stmts.add(getVarDeclST("int", counter, "0"));
+        }
+        else {
+            stmtList.add("stmts", lowerBlock(loop.getBody()));
+        }
+
+        if (loop.isSingleRow()) {
+            Code ifStmt = new Code(Template.IF_STMT);
+            ifStmt.add("cond", loop.getRowVar() + ".advanceRow()");
+            ifStmt.add("then_block", stmtList);
+            stmts.add(ifStmt);
+            return;
+        }
+
+        Code whileStmt = new Code(Template.WHILE_STMT);
+        whileStmt.add("cond", loop.getRowVar() + ".advanceRow()");
+        whileStmt.add("body", stmtList);
+        stmts.add(whileStmt);
+        if (counter != null) {
+            stmts.add(getExecuteRestST(counter, rowsPerBatch));
+        }
+    }
+
+    /*
+     * int queued0 = 0;
+     * for (long <index> = <lower>; <index> <= <upper>; ++<index>) {
+     *     voltQueueSQL(<dml>, ...);
+     *     if (++queued0 % MAX_BATCH_SIZE == 0) {
+     *         voltExecuteSQL();
+     *     }
+     * }
+     * if (queued0 % MAX_BATCH_SIZE != 0) {
+     *     voltExecuteSQL();
+     * }
+     */
+    private void lowerForall(List<Code> stmts, Forall forall) {
+        List<Stmt> body = forall.getBody();
+        SqlOp dml = (SqlOp) body.get(body.size() - 1);
+
+        String counter = "queued" + m_queuedCount++;
+        stmts.add(getVarDeclST("int", counter, "0"));
+
+        Code loopBody = new Code(Template.SLIST);
+        loopBody.add("stmts", getQueueSqlST(dml));
+        loopBody.add("stmts", getExecuteEveryST(counter, ProcedureEmitter.MAX_BATCH_SIZE));
+
+        Code forStmt = new Code(Template.FOR_STMT);
+        forStmt.add("control", forall.getControl());
+        forStmt.add("body", loopBody);
+        stmts.add(forStmt);
+        stmts.add(getExecuteRestST(counter, ProcedureEmitter.MAX_BATCH_SIZE));
+    }
+
+    // Execute the queued SQL when the counter of iterations reaches a multiple of the batch size
+    private static Code getExecuteEveryST(String counter, int iterationsPerBatch) {
+        Code execute = new Code(Template.SLIST);
+        execute.add("stmts", new Code(Template.EXECUTE_SQL_STMT));
+        Code ifStmt = new Code(Template.IF_STMT);
+        ifStmt.add("cond", "++" + counter + " % " + iterationsPerBatch + " == 0");
+        ifStmt.add("then_block", execute);
+        return ifStmt;
+    }
+
+    // After the loop, execute whatever is left in the last batch
+    private static Code getExecuteRestST(String counter, int iterationsPerBatch) {
+        Code execute = new Code(Template.SLIST);
+        execute.add("stmts", new Code(Template.EXECUTE_SQL_STMT));
+        Code ifStmt = new Code(Template.IF_STMT);
+        ifStmt.add("cond", counter + " % " + iterationsPerBatch + " != 0");
+        ifStmt.add("then_block", execute);
+        return ifStmt;
+    }
+
+    // Read the results of a query again from the table an earlier execution left them in
+    private void addReuse(List<Code> stmts, SqlOp op) {
+        Code reset = new Code(Template.FREEFORM_LINE);
+        reset.add("text", op.getReusedTable() + ".resetRowPosition();");
+        stmts.add(reset);
+        addResultExtraction(stmts, op, op.getReusedTable());
+    }
+
+    private static Code getQueueSqlST(SqlOp op) {
+        Code queueSql = new Code(Template.QUEUE_SQL_STMT);
+        queueSql.add("stmt_name", op.getName());
+        for (String inputParam : op.getStmt().getInputParams()) {
+            queueSql.add("params", inputParam);
+        }
+        return queueSql;
+    }
+
+    /**
+     * Generate code to assign the result of a SQL statement to its output variables.
+     * The result is the given VoltTable expression, or if that is null, the result
+     * of executing a batch of just this statement.
+     */
+    private void addResultExtraction(List<Code> stmts, SqlOp op, String result) {
+        AnalyzedSqlStmt analyzedStmt = op.getStmt();
+
+        if (op.getKeptTable() != null) {
+            if (result == null) {
+                Code executeSql = new Code(Template.EXECUTE_SQL_STMT);
+                executeSql.add("var_name", op.getKeptTable());
+                executeSql.add("post_text", "[0]");
+                stmts.add(executeSql);
+            }
+            else {
+                stmts.add(getAssignmentST(op.getKeptTable(), result));
+            }
+            result = op.getKeptTable();
+        }
+
+        if (op.getTableVar() != null) {
+            if (result == null) {
+                Code executeSql = new Code(Template.EXECUTE_SQL_STMT);
+                executeSql.add("var_name", op.getTableVar());
+                executeSql.add("post_text", "[0]");
+                stmts.add(executeSql);
+            }
+            else {
+                stmts.add(getAssignmentST(op.getTableVar(), result));
+            }
+            return;
+        }
+
+        List<String> outputParams = analyzedStmt.getOutputParams();
+        Code execSql = new Code(Template.EXECUTE_SQL_STMT);
+        if (analyzedStmt.isBulkCollect()) {
+            addBulkCollect(stmts, analyzedStmt, result);
+            return;
+        }
+
+        switch (outputParams.size()) {
+        case 0:
+            // Just execute the SQL.  No need to assign result to anything.
+            if (result == null) {
+                stmts.add(execSql);
+            }
+            break;
+        case 1:
+            if (analyzedStmt.producesSingleIntegerColumn()) {
+                addScalarAssignment(stmts, outputParams.get(0), result, ".asScalarLong()", "long");
+                break;
+            }
+            if (analyzedStmt.getRowCount() != RowCount.MANY) {
+                // There's no asScalar method for other types, so read the first row in place
+                String voltTableAccessor = ExpressionFormatter.getVoltTableAccessor(analyzedStmt.getOutputSchema(), 0);
+                assert (voltTableAccessor != null);
+                addScalarAssignment(stmts, outputParams.get(0), result, ".fetchRow(0)." + voltTableAccessor,
+                        getColumnJavaType(analyzedStmt, 0));
+                break;
+            }
+            // otherwise, fall through to general case
+        default: {
+            if (result == null) {
+                execSql.add("var_name", "vt");
+                execSql.add("post_text", "[0]");
+                stmts.add(execSql);
+            }
+            else {
+                stmts.add(getAssignmentST("vt", result));
+            }
+
+            // Extract each field to local variables
+            Code advance = new Code(Template.FREEFORM_LINE);
+            advance.add("text", "vt.advanceRow();");
+            stmts.add(advance);
+            int i = 0;
+            for (String var : outputParams) {
+                String voltTableAccessor = ExpressionFormatter.getVoltTableAccessor(analyzedStmt.getOutputSchema(), i);
+                assert (voltTableAccessor != null);
+                stmts.add(getAssignmentST(var, convertColumn(var, "vt." + voltTableAccessor, analyzedStmt, i)));
+                ++i;
+            }
+
+        }
+        }
+    }
+
+    /**
+     * Fill each collection of a BULK COLLECT INTO from every row of the
+     * statement's result, given as an expression or null to execute it.
+     */
+    private void addBulkCollect(List<Code> stmts, AnalyzedSqlStmt analyzedStmt, String result) {
+        if (result == null) {
+            Code execSql = new Code(Template.EXECUTE_SQL_STMT);
+            execSql.add("var_name", "vt");
+            execSql.add("post_text", "[0]");
+            stmts.add(execSql);
+        }
+        else {
+            stmts.add(getAssignmentST("vt", result));
+        }
+
+        Code loopBody = new Code(Template.SLIST);
+        int i = 0;
+        for (String var : analyzedStmt.getOutputParams()) {
+            String javaType = m_ir.getVariables().get(var).getJavaType();
+            stmts.add(getAssignmentST(var, "new " + javaType.replaceFirst("\\[", "[vt.getRowCount()")));
+            String voltTableAccessor = ExpressionFormatter.getVoltTableAccessor(analyzedStmt.getOutputSchema(), i);
+            assert (voltTableAccessor != null);
+            String element = TypeTranslator.convert("vt." + voltTableAccessor, getColumnJavaType(analyzedStmt, i),
+                    m_ir.getVariables().get(var).getElementJavaType());
+            loopBody.add("stmts", getAssignmentST(var + "[vt.getActiveRowIndex()]", element));
+            ++i;
+        }
+
+        Code whileStmt = new Code(Template.WHILE_STMT);
+        whileStmt.add("cond", "vt.advanceRow()");
+        whileStmt.add("body", loopBody);
+        stmts.add(whileStmt);
+    }
+
+    /**
+     * Assign a single value read from the statement's result, given as an
+     * expression or null to execute it, to a variable.
+     */
+    private void addScalarAssignment(List<Code> stmts, String var, String result, String read, String javaType) {
+        String value = (result == null ? "voltExecuteSQL()[0]" : result) + read;
+        String converted = TypeTranslator.convert(value, javaType, m_ir.getVariables().get(var).getJavaType());
+        if (result == null && converted.equals(value)) {
+            Code execSql = new Code(Template.EXECUTE_SQL_STMT);
+            execSql.add("var_name", var);
+            execSql.add("post_text", "[0]" + read);
+            stmts.add(execSql);
+        }
+        else {
+            stmts.add(getAssignmentST(var, converted));
+        }
+    }
+
+    private static String getColumnJavaType(AnalyzedSqlStmt analyzedStmt, int index) {
+        return TypeTranslator.translate(analyzedStmt.getOutputSchema().getColumns().get(index).getType());
+    }
+
+    // A column read into a variable, converted to the variable's type
+    private String convertColumn(String var, String value, AnalyzedSqlStmt analyzedStmt, int index) {
+        return TypeTranslator.convert(value, getColumnJavaType(analyzedStmt, index),
+                m_ir.getVariables().get(var).getJavaType());
+    }
+
+    private static Code getAssignmentST(String lhs, String rhs) {
+        Code assign = new Code(Template.ASSIGNMENT_STMT);
+        assign.add("lhs", lhs);
+        assign.add("rhs", rhs);
+        return assign;
+    }
+
+    private static Code getVarDeclST(String javaType, String varName, String init) {
+        Code varDecl = new Code(Template.VARIABLE_DECL);
+        varDecl.add("var_type", javaType);
+        varDecl.add("var_name", varName);
+        if (init != null) {
+            varDecl.add("init", init);
+        }
+        return varDecl;
+    }
+}
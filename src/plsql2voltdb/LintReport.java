@@ -0,0 +1,56 @@
+package plsql2voltdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import plsql2voltdb.PlanLinter.Finding;
+
+/**
+ * Collects the plan lint findings for all translated procedures and writes
+ * them as a tab-separated file with one line per finding:
+ *
+ *   procedure  statement  check  detail  sql
+ *
+ * The first line holds those column names.  Check is one of seqscan,
+ * multipartition, unindexed-join, unindexed-orderby and multirow-into.
+ */
+public class LintReport {
+
+    private final List<Finding> m_findings = new ArrayList<>();
+
+    public synchronized void add(Collection<Finding> findings) {
+        m_findings.addAll(findings);
+    }
+
+    public synchronized int size() {
+        return m_findings.size();
+    }
+
+    public synchronized void save(String path) throws IOException {
+        // Files may be translated in any order, so sort for a stable report
+        List<Finding> findings = new ArrayList<>(m_findings);
+        findings.sort(Comparator.comparing(Finding::getProcedure)
+                .thenComparing(Finding::getStatement)
+                .thenComparing(Finding::getCheck)
+                .thenComparing(Finding::getDetail));
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.join("\t", "procedure", "statement", "check", "detail", "sql"));
+        for (Finding finding : findings) {
+            lines.add(finding.toString());
+        }
+
+        Path reportPath = Paths.get(path);
+        if (reportPath.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        }
+        Files.write(reportPath, lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,14 @@
+package plsql2voltdb;
+
+/**
+ * A rewrite of a procedure's IR that keeps what the procedure does.
+ */
+public interface OptimizerPass {
+
+    /**
+     * A short name for the pass, used in IR dumps.
+     */
+    String getName();
+
+    void run(ProcedureIr ir);
+}
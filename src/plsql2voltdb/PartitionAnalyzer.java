@@ -0,0 +1,163 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+import plsql2voltdb.SqlAnalyzer.ColumnPredicate;
+
+/**
+ * Decides whether a procedure can run single-partitioned.  That requires
+ * every scan of a partitioned table or view to be restricted to one value of
+ * the partitioning column, all of them taking that value from the same input
+ * parameter, and no statement writing a replicated table.  Each side of a
+ * self-join and a subquery over a table are scans of their own.
+ */
+public class PartitionAnalyzer {
+
+    public static class Result {
+        private final String m_table;
+        private final String m_column;
+        private final int m_parameterIndex;
+        private final String m_parameter;
+        private final List<String> m_reasons;
+
+        Result(String table, String column, int parameterIndex, String parameter, List<String> reasons) {
+            m_table = table;
+            m_column = column;
+            m_parameterIndex = parameterIndex;
+            m_parameter = parameter;
+            m_reasons = reasons;
+        }
+
+        public boolean isSinglePartition() {
+            return m_reasons.isEmpty();
+        }
+
+        /**
+         * The table and column to name in the procedure's PARTITION ON clause.
+         */
+        public String getTable() {
+            return m_table;
+        }
+
+        public String getColumn() {
+            return m_column;
+        }
+
+        /**
+         * The zero-based index of the parameter that holds the partitioning key.
+         */
+        public int getParameterIndex() {
+            return m_parameterIndex;
+        }
+
+        public String getParameter() {
+            return m_parameter;
+        }
+
+        /**
+         * Why the procedure has to be multi-partition.
+         */
+        public List<String> getReasons() {
+            return m_reasons;
+        }
+    }
+
+    private final SqlAnalyzer m_analyzer;
+
+    PartitionAnalyzer(SqlAnalyzer analyzer) {
+        m_analyzer = analyzer;
+    }
+
+    /**
+     * Takes the procedure's statements by name, and the names of its
+     * input parameters in order.
+     */
+    public Result analyze(Map<String, AnalyzedSqlStmt> stmts, List<String> parameters) {
+        List<String> reasons = new ArrayList<>();
+        String keyParameter = null;
+        String keyStmt = null;
+        String keyTable = null;
+
+        for (Map.Entry<String, AnalyzedSqlStmt> entry : stmts.entrySet()) {
+            String stmtName = entry.getKey();
+            AnalyzedSqlStmt stmt = entry.getValue();
+
+            String modifiedTable = stmt.getModifiedTable();
+            if (modifiedTable != null && m_analyzer.isReplicated(modifiedTable)) {
+                reasons.add(stmtName + " writes replicated table " + modifiedTable);
+            }
+
+            for (Map.Entry<String, String> scan : stmt.getTableScans().entrySet()) {
+                String table = scan.getValue();
+                if (m_analyzer.isReplicated(table)) {
+                    continue;
+                }
+
+                String partitionColumn = m_analyzer.getPartitionColumn(table);
+                if (partitionColumn == null) {
+                    // For example, a view that leaves out the partitioning column
+                    reasons.add(stmtName + " reads " + table + ", which is partitioned but has no partitioning column");
+                    continue;
+                }
+
+                String qualifiedColumn = scan.getKey() + "." + partitionColumn
+                        + (scan.getKey().equals(table) ? "" : " of " + table);
+                String parameter = null;
+                String otherValue = null;
+                for (ColumnPredicate pred : stmt.getPredicates()) {
+                    if (! pred.isEquality() || ! pred.getScan().equals(scan.getKey()) || ! pred.getColumn().equals(partitionColumn)) {
+                        continue;
+                    }
+
+                    if (pred.getVariable() != null && parameters.contains(pred.getVariable())) {
+                        parameter = pred.getVariable();
+                        break;
+                    }
+                    otherValue = pred.getVariable() != null ? "local variable " + pred.getVariable() : "constant " + pred.getConstant();
+                }
+
+                if (parameter == null) {
+                    if (otherValue != null) {
+                        reasons.add(stmtName + " compares " + qualifiedColumn + " with " + otherValue + ", not a parameter");
+                    }
+                    else {
+                        reasons.add(stmtName + " does not restrict " + qualifiedColumn + " to a single value");
+                    }
+                    continue;
+                }
+
+                if (keyParameter == null) {
+                    keyParameter = parameter;
+                    keyStmt = stmtName;
+                }
+                else if (! keyParameter.equals(parameter)) {
+                    reasons.add(stmtName + " takes " + qualifiedColumn + " from " + parameter
+                            + ", but " + keyStmt + " uses " + keyParameter);
+                    continue;
+                }
+
+                // Name a table rather than a view in the PARTITION ON clause if possible
+                if (keyTable == null || (m_analyzer.getViewSource(keyTable) != null && m_analyzer.getViewSource(table) == null)) {
+                    keyTable = table;
+                }
+            }
+        }
+
+        if (keyParameter == null && reasons.isEmpty()) {
+            reasons.add("no statement accesses a partitioned table");
+        }
+
+        if (! reasons.isEmpty()) {
+            return new Result(null, null, -1, null, reasons);
+        }
+
+        if (m_analyzer.getViewSource(keyTable) != null) {
+            keyTable = m_analyzer.getViewSource(keyTable);
+        }
+        return new Result(keyTable, m_analyzer.getPartitionColumn(keyTable),
+                parameters.indexOf(keyParameter), keyParameter, reasons);
+    }
+}
@@ -0,0 +1,84 @@
+package plsql2voltdb;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the optimizer passes chosen by an optimization level over the IR
+ * of each procedure, optionally printing the IR after each one:
+ *
+ *   0  none, so every SQL statement is executed on its own
+ *   1  removal of queries and assignments whose results are never read
+ *      and batching of independent SQL statements
+ *   2  also reuse of query results, hoisting of loop-invariant queries,
+ *      fetching the row of a cursor loop over a query that returns at most
+ *      one row without looping, and batching of DML across the rows of
+ *      cursor loops
+ *
+ * The default is 0, so code is generated as it was before there were any
+ * passes unless optimization is asked for.
+ *
+ * Folding of constant expressions is not a pass: the IR holds expressions
+ * as Java source, so ProcedureEmitter folds them from the parse tree while
+ * building the IR when the level is at least 1, writing CONSTANTs into SQL
+ * as literals.  The IR printed as built already has them folded.
+ */
+public class PassManager {
+
+    public static final int MAX_LEVEL = 2;
+    public static final int DEFAULT_LEVEL = 0;
+
+    private final List<OptimizerPass> m_passes = new ArrayList<>();
+    private PrintStream m_dump = null;
+
+    public PassManager(int level) {
+        if (level >= 1) {
+            m_passes.add(new RemoveDeadCodePass());
+        }
+        if (level >= 2) {
+            m_passes.add(new ReuseResultsPass());
+            m_passes.add(new HoistQueriesPass());
+            // Later queries can read the results of hoisted ones
+            m_passes.add(new ReuseResultsPass());
+            m_passes.add(new SingleRowLoopPass());
+            m_passes.add(new DeferLoopSqlPass());
+        }
+        if (level >= 1) {
+            m_passes.add(new BatchSqlPass());
+        }
+    }
+
+    /**
+     * Add a pass to run after the others.
+     */
+    public void add(OptimizerPass pass) {
+        m_passes.add(pass);
+    }
+
+    public List<OptimizerPass> getPasses() {
+        return m_passes;
+    }
+
+    /**
+     * Print the IR as built and after each pass to the given stream.
+     */
+    public void setDump(PrintStream dump) {
+        m_dump = dump;
+    }
+
+    public void run(ProcedureIr ir) {
+        dump(ir, "build");
+        for (OptimizerPass pass : m_passes) {
+            pass.run(ir);
+            dump(ir, pass.getName());
+        }
+    }
+
+    private void dump(ProcedureIr ir, String after) {
+        if (m_dump != null) {
+            m_dump.println("-- IR of " + ir.getName() + " after " + after);
+            ir.dump(m_dump);
+        }
+    }
+}
@@ -1,28 +1,577 @@
 package plsql2voltdb;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedCharStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
 import plsql_parser.PlSqlLexer;
 import plsql_parser.PlSqlParser;
 
 public class PlSql2JavaTranslator {
 
+    /**
+     * The result of emitting one file on a worker thread.  Messages are
+     * buffered so they can be printed in the order the files were given.
+     */
+    private static class FileResult {
+        final int m_rc;
+        final TranslationOutputs m_outputs;
+        final String m_out;
+        final String m_err;
+
+        FileResult(int rc, TranslationOutputs outputs, String out, String err) {
+            m_rc = rc;
+            m_outputs = outputs;
+            m_out = out;
+            m_err = err;
+        }
+    }
+
+    /**
+     * What the emitters for one input file produced and depended on.  Unless
+     * saving is deferred, each emitter is saved as soon as it has emitted, and
+     * only what the manifest needs is kept.
+     */
+    private static class TranslationOutputs {
+        // Set when emitters are kept until saveFile, so files emitted in parallel are saved in order
+        final boolean m_deferred;
+        // Set if the manifest says the file's outputs are up to date
+        boolean m_upToDate = false;
+        String m_inputHash = null;
+
+        final List<ProcedureEmitter> m_emitters = new ArrayList<>();
+        final List<Path> m_files = new ArrayList<>();
+        final Set<String> m_tables = new TreeSet<>();
+        final Set<String> m_columns = new TreeSet<>();
+
+        TranslationOutputs(boolean deferred) {
+            m_deferred = deferred;
+        }
+    }
+
+    private final SqlAnalyzer m_analyzer;
+    private final String m_targetDirectory;
+    private final String m_targetPackage;
+    private final String m_translatorHash;
+    private String m_generatorHash;
+    private int m_optimizationLevel = PassManager.DEFAULT_LEVEL;
+    private boolean m_dumpIr = false;
+    private BuildManifest m_manifest = null;
+    private boolean m_streaming = false;
+    private boolean m_useTemplates = false;
+    private LintReport m_lintReport = null;
+    private IndexAdvisor m_indexAdvisor = null;
+    private PlanSnapshot m_planSnapshot = null;
+    private ProcedureJar m_procedureJar = null;
+    private boolean m_writeSources = true;
+
+    PlSql2JavaTranslator(SqlAnalyzer analyzer, String targetDirectory, String targetPackage) {
+        m_analyzer = analyzer;
+        m_targetDirectory = targetDirectory;
+        m_targetPackage = targetPackage;
+        m_translatorHash = getTranslatorHash();
+        m_generatorHash = getGeneratorHash();
+    }
+
+    // What the output depends on besides the input and the DDL, including
+    // where it goes, so that output to another directory is written again
+    private String getGeneratorHash() {
+        return ContentHash.of(m_translatorHash + "\n"
+                + ProcedureEmitter.getTemplateHash() + "\n"
+                + Paths.get(m_targetDirectory).toAbsolutePath().normalize() + "\n"
+                + m_targetPackage + "\n"
+                + m_optimizationLevel);
+    }
+
+    /**
+     * A hash of the translator's own code: the jar it was loaded from, or
+     * the classes and resources of its package when run from a directory.
+     * Any change to the translator then makes incremental builds translate
+     * everything again.
+     */
+    private static String getTranslatorHash() {
+        try {
+            Path location = Paths.get(PlSql2JavaTranslator.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isRegularFile(location)) {
+                return ContentHash.of(location);
+            }
+            return ContentHash.ofTree(location.resolve(PlSql2JavaTranslator.class.getPackage().getName()));
+        }
+        catch (IOException | URISyntaxException exc) {
+            throw new RuntimeException("Could not read the translator's classes: " + exc.getMessage(), exc);
+        }
+    }
+
+    /**
+     * Skip files that the manifest says are up to date, and record
+     * the files that are translated.
+     */
+    void setManifest(BuildManifest manifest) {
+        m_manifest = manifest;
+    }
+
+    /**
+     * Translate each file one unit at a time rather than as a whole script.
+     */
+    void setStreaming(boolean streaming) {
+        m_streaming = streaming;
+    }
+
+    /**
+     * Render generated code with the StringTemplate group in voltdb-procedure.stg,
+     * which can be customized, rather than writing it directly.
+     */
+    void setUseTemplates(boolean useTemplates) {
+        m_useTemplates = useTemplates;
+    }
+
+    /**
+     * Run the optimizer passes of the given level, from 0 to PassManager.MAX_LEVEL.
+     */
+    void setOptimizationLevel(int level) {
+        m_optimizationLevel = level;
+        m_generatorHash = getGeneratorHash();
+    }
+
+    /**
+     * Print the IR of each procedure after each optimizer pass.
+     */
+    void setDumpIr(boolean dumpIr) {
+        m_dumpIr = dumpIr;
+    }
+
+    /**
+     * Add the plan lint findings of each translated procedure to the report.
+     * Files skipped because the manifest says they are up to date are not linted.
+     */
+    void setLintReport(LintReport lintReport) {
+        m_lintReport = lintReport;
+    }
+
+    /**
+     * Give the statements of each translated procedure to the index advisor.
+     */
+    void setIndexAdvisor(IndexAdvisor indexAdvisor) {
+        m_indexAdvisor = indexAdvisor;
+    }
+
+    /**
+     * Record the plan of every statement of each translated procedure.
+     */
+    void setPlanSnapshot(PlanSnapshot planSnapshot) {
+        m_planSnapshot = planSnapshot;
+    }
+
+    /**
+     * Add the generated source of each procedure to the jar.  Files skipped
+     * because the manifest says they are up to date add the sources they
+     * produced last time.
+     */
+    void setProcedureJar(ProcedureJar procedureJar) {
+        m_procedureJar = procedureJar;
+    }
+
+    /**
+     * Write the generated Java sources as well as the DDL.  Without them,
+     * the procedures are only in the jar.
+     */
+    void setWriteSources(boolean writeSources) {
+        m_writeSources = writeSources;
+    }
+
+    int translateFile(String plSqlFile, PrintStream out, PrintStream err) {
+        return translateFile(plSqlFile, out, err, null);
+    }
+
+    /**
+     * Translate one file, adding the paths of any source files
+     * it produces to outputFiles if that is not null.
+     */
+    int translateFile(String plSqlFile, PrintStream out, PrintStream err, List<Path> outputFiles) {
+        TranslationOutputs outputs = new TranslationOutputs(false);
+        int rc = emitFile(plSqlFile, outputs, out, err);
+        return saveFile(plSqlFile, outputs, rc, out, err, outputFiles);
+    }
+
+    /**
+     * Parse and emit a file, unless the manifest says it is up to date.  If
+     * the outputs defer saving nothing is written, so files can be emitted
+     * in parallel.
+     */
+    private int emitFile(String plSqlFile, TranslationOutputs outputs, PrintStream out, PrintStream err) {
+        if (m_manifest != null) {
+            try {
+                outputs.m_inputHash = ContentHash.of(Paths.get(plSqlFile));
+            }
+            catch(IOException ioExc) {
+                err.println("Couldn't open file \"" + plSqlFile + "\": " + ioExc.getMessage());
+                return 1;
+            }
+
+            String staleReason = m_manifest.getStaleReason(plSqlFile, outputs.m_inputHash, m_generatorHash, m_analyzer);
+            if (staleReason == null) {
+                out.println("Skipping unchanged file " + plSqlFile);
+                outputs.m_upToDate = true;
+                return 0;
+            }
+            out.println("Translating " + plSqlFile + ": " + staleReason);
+        }
+
+        if (m_streaming) {
+            return emitUnits(plSqlFile, outputs, out, err);
+        }
+        return emitScript(plSqlFile, outputs, out, err);
+    }
+
+    /**
+     * Save any emitters whose saving was deferred, and add the file to the
+     * manifest.  Files are saved one at a time in the order they were given.
+     */
+    private int saveFile(String plSqlFile, TranslationOutputs outputs, int emitRc,
+            PrintStream out, PrintStream err, List<Path> outputFiles) {
+        if (outputs.m_upToDate) {
+            return addPreviousSources(plSqlFile, err);
+        }
+
+        int rc = emitRc;
+        for (ProcedureEmitter emitter : outputs.m_emitters) {
+            int saveRc = saveEmitter(outputs, emitter, out, err);
+            if (saveRc != 0) {
+                rc = saveRc;
+                break;
+            }
+        }
+        outputs.m_emitters.clear();
+
+        if (outputFiles != null) {
+            outputFiles.addAll(outputs.m_files);
+        }
+
+        if (m_manifest != null) {
+            if (rc != 0) {
+                m_manifest.forget(plSqlFile);
+                return rc;
+            }
+
+            try {
+                m_manifest.record(plSqlFile, outputs.m_inputHash, m_generatorHash,
+                        outputs.m_tables, outputs.m_columns, m_analyzer, outputs.m_files);
+            }
+            catch (IOException ioExc) {
+                err.println("Could not hash generated files for \"" + plSqlFile + "\": " + ioExc.getMessage());
+                return 1;
+            }
+        }
+
+        return rc;
+    }
+
+    // Save an emitter now, or keep it for saveFile if saving is deferred
+    private int addEmitter(TranslationOutputs outputs, ProcedureEmitter emitter, PrintStream out, PrintStream err) {
+        if (outputs.m_deferred) {
+            outputs.m_emitters.add(emitter);
+            return 0;
+        }
+        return saveEmitter(outputs, emitter, out, err);
+    }
+
+    /**
+     * Write the files of an emitter and add its procedures to the lint report,
+     * index advice, plan snapshot and jar, keeping only what the manifest
+     * needs so the emitter, its tokens and its plans can be dropped.
+     */
+    private int saveEmitter(TranslationOutputs outputs, ProcedureEmitter emitter, PrintStream out, PrintStream err) {
+        int rc = emitter.writeFiles(out, err);
+        if (rc != 0) {
+            return rc;
+        }
+
+        outputs.m_files.addAll(emitter.getOutputFiles());
+        outputs.m_tables.addAll(emitter.getReferencedTables());
+        outputs.m_columns.addAll(emitter.getReferencedColumns());
+
+        if (m_lintReport != null) {
+            m_lintReport.add(emitter.getLintFindings());
+        }
+
+        if (m_procedureJar != null) {
+            for (Map.Entry<String, String> source : emitter.getGeneratedSources().entrySet()) {
+                m_procedureJar.add(source.getKey(), source.getValue());
+            }
+        }
+
+        for (Map.Entry<String, AnalyzedSqlStmt> stmt : emitter.getStatements().entrySet()) {
+            if (m_indexAdvisor != null) {
+                m_indexAdvisor.add(stmt.getKey(), stmt.getValue());
+            }
+            if (m_planSnapshot != null) {
+                m_planSnapshot.add(stmt.getKey(), stmt.getValue());
+            }
+        }
+
+        return 0;
+    }
+
+    // Add the Java files last produced from an up-to-date file to the jar
+    private int addPreviousSources(String plSqlFile, PrintStream err) {
+        if (m_procedureJar == null) {
+            return 0;
+        }
+
+        for (String output : m_manifest.getOutputs(plSqlFile)) {
+            Path outputPath = Paths.get(output);
+            String fileName = outputPath.getFileName().toString();
+            if (! fileName.endsWith(".java")) {
+                continue;
+            }
+
+            String className = ProcedureEmitter.getQualifiedClassName(m_targetPackage,
+                    fileName.substring(0, fileName.length() - ".java".length()));
+            try {
+                m_procedureJar.add(className, outputPath);
+            }
+            catch (IOException ioExc) {
+                err.println("Couldn't read generated file \"" + output + "\": " + ioExc.getMessage());
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private ProcedureEmitter newEmitter(TokenStream tokens, PrintStream out, PrintStream err) {
+        ProcedureEmitter emitter = new ProcedureEmitter(m_analyzer, m_targetDirectory, m_targetPackage, tokens, out, err);
+        if (m_useTemplates) {
+            emitter.setRenderer(new TemplateRenderer());
+        }
+        emitter.setOptimizationLevel(m_optimizationLevel);
+        emitter.setDumpIr(m_dumpIr);
+        emitter.setLint(m_lintReport != null);
+        emitter.setWriteSources(m_writeSources);
+        return emitter;
+    }
+
+    // Parse the whole file as one script, then emit it
+    private int emitScript(String plSqlFile, TranslationOutputs outputs, PrintStream out, PrintStream err) {
+        CharStream cs = null;
+        try {
+            cs = CharStreams.fromFileName(plSqlFile);
+        }
+        catch(IOException ioExc) {
+            err.println("Couldn't open file \"" + plSqlFile + "\": " + ioExc.getMessage());
+            return 1;
+        }
+
+        PlSqlLexer lexer = new PlSqlLexer(cs);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new TwoStageParser.ErrorListener(err));
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        TwoStageParser parser = new TwoStageParser(tokens, err);
+        ParseTree tree = parser.parse(PlSqlParser::sql_script);
+        out.println("Parsed " + plSqlFile + " using " + parser.getMode() + " prediction");
+
+        ProcedureEmitter emitter = newEmitter(tokens, out, err);
+        emitter.emit(tree);
+        return addEmitter(outputs, emitter, out, err);
+    }
+
+    /**
+     * Lex the file incrementally and parse and emit one unit at a time, so that
+     * only the tokens and tree of the current unit are held in memory.  A unit
+     * runs from one CREATE keyword to the next; CREATE can't appear inside a
+     * PL/SQL unit other than in a string literal, which the lexer keeps whole.
+     */
+    private int emitUnits(String plSqlFile, TranslationOutputs outputs, PrintStream out, PrintStream err) {
+        int[] unitsByMode = new int[TwoStageParser.Mode.values().length];
+        try (Reader reader = Files.newBufferedReader(Paths.get(plSqlFile), StandardCharsets.UTF_8)) {
+            UnbufferedCharStream cs = new UnbufferedCharStream(reader);
+            cs.name = plSqlFile;
+            PlSqlLexer lexer = new PlSqlLexer(cs);
+            // The char stream doesn't keep old input, so tokens must hold their own text
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(new TwoStageParser.ErrorListener(err));
+
+            List<Token> unitTokens = new ArrayList<>();
+            boolean unitHasStatement = false;
+            Token token;
+            do {
+                token = lexer.nextToken();
+                boolean atBoundary = token.getType() == Token.EOF
+                        || (token.getType() == PlSqlLexer.CREATE && token.getChannel() == Token.DEFAULT_CHANNEL);
+                if (atBoundary && unitHasStatement) {
+                    CommonTokenStream tokens = new CommonTokenStream(new ListTokenSource(unitTokens, plSqlFile));
+                    TwoStageParser parser = new TwoStageParser(tokens, err);
+                    ParseTree tree = parser.parse(PlSqlParser::sql_script);
+                    ++unitsByMode[parser.getMode().ordinal()];
+
+                    ProcedureEmitter emitter = newEmitter(tokens, out, err);
+                    emitter.emit(tree);
+                    int rc = addEmitter(outputs, emitter, out, err);
+                    if (rc != 0) {
+                        return rc;
+                    }
+
+                    unitTokens = new ArrayList<>();
+                    unitHasStatement = false;
+                }
+
+                if (token.getType() != Token.EOF) {
+                    unitTokens.add(token);
+                    unitHasStatement |= token.getChannel() == Token.DEFAULT_CHANNEL;
+                }
+            } while (token.getType() != Token.EOF);
+        }
+        catch(IOException ioExc) {
+            err.println("Couldn't read file \"" + plSqlFile + "\": " + ioExc.getMessage());
+            return 1;
+        }
+
+        out.println("Parsed " + plSqlFile + ": "
+                + unitsByMode[TwoStageParser.Mode.SLL.ordinal()] + " units using SLL prediction, "
+                + unitsByMode[TwoStageParser.Mode.LL.ordinal()] + " using LL");
+        return 0;
+    }
+
+    int translateFiles(List<String> plSqlFiles) {
+        for (String plSqlFile : plSqlFiles) {
+            int rc = translateFile(plSqlFile, System.out, System.err);
+            if (rc != 0) {
+                return rc;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Emit files on a pool of threads, then save them in the order they were
+     * given, stopping at the first failure as translateFiles does.  Nothing is
+     * written for the files after one that fails.
+     */
+    int translateFilesInParallel(List<String> plSqlFiles, int numThreads) {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<FileResult>> futures = new ArrayList<>();
+            for (final String plSqlFile : plSqlFiles) {
+                futures.add(pool.submit(() -> {
+                    ByteArrayOutputStream outBuf = new ByteArrayOutputStream();
+                    ByteArrayOutputStream errBuf = new ByteArrayOutputStream();
+                    TranslationOutputs outputs = new TranslationOutputs(true);
+                    int rc;
+                    try (PrintStream out = new PrintStream(outBuf); PrintStream err = new PrintStream(errBuf)) {
+                        rc = emitFile(plSqlFile, outputs, out, err);
+                    }
+                    return new FileResult(rc, outputs, outBuf.toString(), errBuf.toString());
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); ++i) {
+                FileResult result;
+                try {
+                    result = futures.get(i).get();
+                }
+                catch (ExecutionException exc) {
+                    if (exc.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)exc.getCause();
+                    }
+                    throw new RuntimeException(exc.getCause());
+                }
+                catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                }
+
+                System.out.print(result.m_out);
+                System.err.print(result.m_err);
+                int rc = saveFile(plSqlFiles.get(i), result.m_outputs, result.m_rc, System.out, System.err, null);
+                if (rc != 0) {
+                    return rc;
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Print the statements whose plans are worse in the new snapshot.
+     * Returns 1 if there are any, so scripts can fail on a regression.
+     */
+    static int diffPlanSnapshots(String oldPath, String newPath) {
+        List<String> regressions;
+        try {
+            regressions = PlanSnapshot.findRegressions(PlanSnapshot.load(oldPath), PlanSnapshot.load(newPath));
+        }
+        catch (IOException ioExc) {
+            System.err.println("Could not read plan snapshot: " + ioExc.getMessage());
+            return 1;
+        }
+
+        for (String regression : regressions) {
+            System.out.println(regression);
+        }
+        System.out.println(regressions.size() + " plan regressions from " + oldPath + " to " + newPath);
+        return regressions.isEmpty() ? 0 : 1;
+    }
+
     public static void main(String[] args) {
         List<String> plSqlFiles = new ArrayList<>();
         String ddlPath = null;
         String targetDirectory = ".";
         String targetPackage = null;
+        int numThreads = 1;
+        String manifestPath = null;
+        boolean streaming = false;
+        boolean useTemplates = false;
+        int optimizationLevel = PassManager.DEFAULT_LEVEL;
+        boolean dumpIr = false;
+        String jarPath = null;
+        String classpath = null;
+        String release = ProcedureJar.DEFAULT_RELEASE;
+        boolean keepSources = false;
+        int serverPort = -1;
+        String lintPath = null;
+        String advicePath = null;
+        String planSnapshotPath = null;
+        List<String> planDiffPaths = null;
 
 
         if (args.length == 0) {
-            System.err.println("Usage: plsqltranslator -ddl FILE [-package PACKAGE_NAME] [-dir DIRECTORY] [FILE...]");
+            System.err.println("Usage: plsqltranslator -ddl FILE [-package PACKAGE_NAME] [-dir DIRECTORY] [-threads N]"
+                    + " [-manifest FILE] [-server PORT] [-stream] [-templates]"
+                    + " [-O LEVEL] [-dump-ir] [-lint FILE] [-advise FILE] [-plansnapshot FILE]"
+                    + " [-jar FILE [-classpath PATH] [-release VERSION] [-sources]] [FILE...]");
+            System.err.println("       plsqltranslator -plandiff OLD_SNAPSHOT NEW_SNAPSHOT");
             System.exit(1);
         }
 
@@ -53,6 +602,133 @@ public class PlSql2JavaTranslator {
                 }
                 targetDirectory = args[i];
             }
+            else if (args[i].equals("-threads")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-threads\" expects an argument");
+                    System.exit(1);
+                }
+                try {
+                    numThreads = Integer.parseInt(args[i]);
+                }
+                catch (NumberFormatException exc) {
+                    numThreads = 0;
+                }
+                if (numThreads < 1) {
+                    System.err.println("Option \"-threads\" expects a positive integer");
+                    System.exit(1);
+                }
+            }
+            else if (args[i].equals("-manifest")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-manifest\" expects an argument");
+                    System.exit(1);
+                }
+                manifestPath = args[i];
+            }
+            else if (args[i].equals("-server")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-server\" expects an argument");
+                    System.exit(1);
+                }
+                try {
+                    serverPort = Integer.parseInt(args[i]);
+                }
+                catch (NumberFormatException exc) {
+                    serverPort = -1;
+                }
+                if (serverPort < 0 || serverPort > 65535) {
+                    System.err.println("Option \"-server\" expects a port number");
+                    System.exit(1);
+                }
+            }
+            else if (args[i].equals("-stream")) {
+                streaming = true;
+            }
+            else if (args[i].equals("-templates")) {
+                useTemplates = true;
+            }
+            else if (args[i].equals("-O")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-O\" expects an argument");
+                    System.exit(1);
+                }
+                try {
+                    optimizationLevel = Integer.parseInt(args[i]);
+                }
+                catch (NumberFormatException exc) {
+                    optimizationLevel = -1;
+                }
+                if (optimizationLevel < 0 || optimizationLevel > PassManager.MAX_LEVEL) {
+                    System.err.println("Option \"-O\" expects an optimization level from 0 to " + PassManager.MAX_LEVEL);
+                    System.exit(1);
+                }
+            }
+            else if (args[i].equals("-dump-ir")) {
+                dumpIr = true;
+            }
+            else if (args[i].equals("-lint")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-lint\" expects an argument");
+                    System.exit(1);
+                }
+                lintPath = args[i];
+            }
+            else if (args[i].equals("-advise")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-advise\" expects an argument");
+                    System.exit(1);
+                }
+                advicePath = args[i];
+            }
+            else if (args[i].equals("-jar")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-jar\" expects an argument");
+                    System.exit(1);
+                }
+                jarPath = args[i];
+            }
+            else if (args[i].equals("-classpath")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-classpath\" expects an argument");
+                    System.exit(1);
+                }
+                classpath = args[i];
+            }
+            else if (args[i].equals("-release")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-release\" expects an argument");
+                    System.exit(1);
+                }
+                release = args[i];
+            }
+            else if (args[i].equals("-sources")) {
+                keepSources = true;
+            }
+            else if (args[i].equals("-plansnapshot")) {
+                ++i;
+                if (i >= args.length) {
+                    System.err.println("Option \"-plansnapshot\" expects an argument");
+                    System.exit(1);
+                }
+                planSnapshotPath = args[i];
+            }
+            else if (args[i].equals("-plandiff")) {
+                i += 2;
+                if (i >= args.length) {
+                    System.err.println("Option \"-plandiff\" expects two arguments");
+                    System.exit(1);
+                }
+                planDiffPaths = Arrays.asList(args[i - 1], args[i]);
+            }
             else {
                 plSqlFiles.add(args[i]);
             }
@@ -60,11 +736,51 @@ public class PlSql2JavaTranslator {
             ++i;
         }
 
+        if (planDiffPaths != null) {
+            System.exit(diffPlanSnapshots(planDiffPaths.get(0), planDiffPaths.get(1)));
+        }
+
         if (ddlPath == null) {
             System.err.println("Please specify a DDL file using the \"-ddl FILE\" option.");
             System.exit(1);
         }
 
+        if (serverPort >= 0) {
+            if (! plSqlFiles.isEmpty() || manifestPath != null || lintPath != null || advicePath != null
+                    || planSnapshotPath != null || jarPath != null || dumpIr) {
+                System.err.println("Files to translate, \"-manifest\", \"-lint\", \"-advise\", \"-plansnapshot\","
+                        + " \"-jar\" and \"-dump-ir\" cannot be used with \"-server\".");
+                System.exit(1);
+            }
+
+            TranslationServer server = new TranslationServer(ddlPath, targetDirectory, targetPackage, serverPort);
+            server.setUseTemplates(useTemplates);
+            server.setOptimizationLevel(optimizationLevel);
+            try {
+                server.loadDdl();
+            }
+            catch (Exception exc) {
+                System.out.println("Problem loading DDL: " + exc.getMessage());
+                System.exit(1);
+            }
+
+            try {
+                server.run();
+            }
+            catch (IOException ioExc) {
+                System.err.println("Server failed: " + ioExc.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // Files the manifest finds up to date aren't planned again, so
+        // nothing of theirs would be reported
+        if (manifestPath != null && (lintPath != null || advicePath != null || planSnapshotPath != null)) {
+            System.err.println("\"-lint\", \"-advise\" and \"-plansnapshot\" cannot be used with \"-manifest\".");
+            System.exit(1);
+        }
+
         SqlAnalyzer analyzer = null;
         try {
             analyzer = new SqlAnalyzer(ddlPath);
@@ -74,26 +790,125 @@ public class PlSql2JavaTranslator {
             System.exit(1);
         }
 
-        for (String plSqlFile : plSqlFiles) {
-            CharStream cs = null;
+        PlSql2JavaTranslator translator = new PlSql2JavaTranslator(analyzer, targetDirectory, targetPackage);
+        translator.setStreaming(streaming);
+        translator.setUseTemplates(useTemplates);
+        translator.setOptimizationLevel(optimizationLevel);
+        translator.setDumpIr(dumpIr);
+        BuildManifest manifest = null;
+        if (manifestPath != null) {
             try {
-                cs = CharStreams.fromFileName(plSqlFile);
+                manifest = BuildManifest.load(manifestPath);
             }
-            catch(IOException ioExc) {
-                System.err.println("Couldn't open file \"" + plSqlFile + "\": " + ioExc.getMessage());
-                return;
+            catch (IOException ioExc) {
+                System.err.println("Could not read manifest \"" + manifestPath + "\": " + ioExc.getMessage());
+                System.exit(1);
             }
+            translator.setManifest(manifest);
+        }
 
-            PlSqlLexer lexer = new PlSqlLexer(cs);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            PlSqlParser parser = new PlSqlParser(tokens);
-            ParseTree tree = parser.sql_script();
+        LintReport lintReport = null;
+        if (lintPath != null) {
+            lintReport = new LintReport();
+            translator.setLintReport(lintReport);
+        }
 
-            ProcedureEmitter emitter = new ProcedureEmitter(analyzer, targetDirectory, targetPackage, tokens);
-            int rc = emitter.emit(tree);
-            if (rc != 0) {
-                System.exit(rc);
+        IndexAdvisor indexAdvisor = null;
+        if (advicePath != null) {
+            indexAdvisor = new IndexAdvisor(analyzer);
+            translator.setIndexAdvisor(indexAdvisor);
+        }
+
+        PlanSnapshot planSnapshot = null;
+        if (planSnapshotPath != null) {
+            planSnapshot = new PlanSnapshot();
+            translator.setPlanSnapshot(planSnapshot);
+        }
+
+        ProcedureJar procedureJar = null;
+        if (jarPath != null) {
+            procedureJar = new ProcedureJar(classpath, release);
+            translator.setProcedureJar(procedureJar);
+            // The sources of files the manifest finds up to date are what goes in the jar
+            translator.setWriteSources(keepSources || manifest != null);
+        }
+
+        int rc;
+        if (numThreads > 1 && plSqlFiles.size() > 1) {
+            rc = translator.translateFilesInParallel(plSqlFiles, numThreads);
+        }
+        else {
+            rc = translator.translateFiles(plSqlFiles);
+        }
+
+        if (dumpIr) {
+            System.out.println("Plan cache: " + analyzer.getPlanCacheHits() + " hits, "
+                    + analyzer.getPlanCacheMisses() + " misses");
+        }
+
+        if (manifest != null) {
+            try {
+                manifest.save();
+            }
+            catch (IOException ioExc) {
+                System.err.println("Could not write manifest \"" + manifestPath + "\": " + ioExc.getMessage());
+                if (rc == 0) {
+                    rc = 1;
+                }
+            }
+        }
+
+        if (lintReport != null) {
+            try {
+                lintReport.save(lintPath);
+                System.out.println("Wrote " + lintReport.size() + " lint findings to " + lintPath);
+            }
+            catch (IOException ioExc) {
+                System.err.println("Could not write lint report \"" + lintPath + "\": " + ioExc.getMessage());
+                if (rc == 0) {
+                    rc = 1;
+                }
+            }
+        }
+
+        if (planSnapshot != null && rc == 0) {
+            try {
+                planSnapshot.save(planSnapshotPath);
+                System.out.println("Wrote plans of " + planSnapshot.size() + " statements to " + planSnapshotPath);
+            }
+            catch (IOException ioExc) {
+                System.err.println("Could not write plan snapshot \"" + planSnapshotPath + "\": " + ioExc.getMessage());
+                rc = 1;
+            }
+        }
+
+        if (procedureJar != null && rc == 0) {
+            try {
+                rc = procedureJar.save(jarPath, System.err);
+                if (rc == 0) {
+                    System.out.println("Wrote " + procedureJar.size() + " compiled procedures to " + jarPath);
+                }
             }
+            catch (IOException ioExc) {
+                System.err.println("Could not write jar \"" + jarPath + "\": " + ioExc.getMessage());
+                rc = 1;
+            }
+        }
+
+        if (indexAdvisor != null && rc == 0) {
+            try {
+                indexAdvisor.confirm(ddlPath);
+                indexAdvisor.save(advicePath);
+                System.out.println("Wrote " + indexAdvisor.size() + " suggested indexes to " + advicePath);
+            }
+            catch (Exception exc) {
+                System.err.println("Could not write index advice \"" + advicePath + "\": " + exc.getMessage());
+                rc = 1;
+            }
+        }
+
+        if (rc != 0) {
+            System.exit(rc);
         }
     }
 }
@@ -0,0 +1,150 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.types.PlanNodeType;
+
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+import plsql2voltdb.SqlAnalyzer.RowCount;
+
+/**
+ * Looks for plan shapes that limit throughput: sequential scans, statements
+ * that have to run on every partition, joins that can't use an index,
+ * sorts that an index could have made unnecessary, and SELECT INTO
+ * statements that may return more than the one row they keep.
+ */
+public class PlanLinter {
+
+    static final String SEQ_SCAN = "seqscan";
+    static final String MULTI_PARTITION = "multipartition";
+    static final String UNINDEXED_JOIN = "unindexed-join";
+    static final String UNINDEXED_ORDER_BY = "unindexed-orderby";
+    static final String MULTI_ROW_INTO = "multirow-into";
+
+    public static class Finding {
+        private final String m_procedure;
+        private final String m_statement;
+        private final String m_check;
+        private final String m_detail;
+        private final String m_sql;
+
+        Finding(String procedure, String statement, String check, String detail, String sql) {
+            m_procedure = procedure;
+            m_statement = statement;
+            m_check = check;
+            m_detail = detail;
+            m_sql = sql;
+        }
+
+        public String getProcedure() {
+            return m_procedure;
+        }
+
+        public String getStatement() {
+            return m_statement;
+        }
+
+        public String getCheck() {
+            return m_check;
+        }
+
+        public String getDetail() {
+            return m_detail;
+        }
+
+        public String getSql() {
+            return m_sql;
+        }
+
+        @Override
+        public String toString() {
+            return String.join("\t", m_procedure, m_statement, m_check, m_detail, m_sql);
+        }
+    }
+
+    private final SqlAnalyzer m_analyzer;
+
+    PlanLinter(SqlAnalyzer analyzer) {
+        m_analyzer = analyzer;
+    }
+
+    public List<Finding> lint(String procedure, String stmtName, AnalyzedSqlStmt stmt) {
+        List<Finding> findings = new ArrayList<>();
+        CompiledPlan plan = stmt.getPlan();
+        String sql = StandAlonePlanner.normalizeSql(stmt.getRewrittenStmt());
+
+        lintNode(plan.rootPlanGraph, procedure, stmtName, sql, findings);
+        if (plan.subPlanGraph != null) {
+            // The fragment that runs on each partition
+            lintNode(plan.subPlanGraph, procedure, stmtName, sql, findings);
+        }
+
+        // Rows after the first would be silently ignored
+        if (! stmt.getOutputParams().isEmpty() && ! stmt.isBulkCollect() && stmt.getRowCount() == RowCount.MANY) {
+            findings.add(new Finding(procedure, stmtName, MULTI_ROW_INTO,
+                    "INTO " + String.join(", ", stmt.getOutputParams()) + " may get more than one row", sql));
+        }
+
+        return findings;
+    }
+
+    private void lintNode(AbstractPlanNode node, String procedure, String stmtName, String sql, List<Finding> findings) {
+        switch (node.getPlanNodeType()) {
+        case SEQSCAN: {
+            String table = ((AbstractScanPlanNode) node).getTargetTableName();
+            String partitioning = m_analyzer.isReplicated(table) ? "replicated" : "partitioned";
+            findings.add(new Finding(procedure, stmtName, SEQ_SCAN, table + " (" + partitioning + ")", sql));
+            break;
+        }
+        case RECEIVE:
+        case MERGERECEIVE:
+            findings.add(new Finding(procedure, stmtName, MULTI_PARTITION,
+                    "sends a fragment to every partition", sql));
+            break;
+        case NESTLOOP:
+            findings.add(new Finding(procedure, stmtName, UNINDEXED_JOIN,
+                    "joins " + getScannedTables(node) + " without an index", sql));
+            break;
+        case ORDERBY:
+            findings.add(new Finding(procedure, stmtName, UNINDEXED_ORDER_BY,
+                    "sorts rows of " + getScannedTables(node), sql));
+            break;
+        default:
+            break;
+        }
+
+        // A merge-receive can do its sort inline
+        if (node.getPlanNodeType() != PlanNodeType.ORDERBY && node.getInlinePlanNode(PlanNodeType.ORDERBY) != null) {
+            findings.add(new Finding(procedure, stmtName, UNINDEXED_ORDER_BY,
+                    "sorts rows of " + getScannedTables(node), sql));
+        }
+
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            lintNode(node.getChild(i), procedure, stmtName, sql, findings);
+        }
+    }
+
+    // The tables scanned below a node, for messages
+    private static String getScannedTables(AbstractPlanNode node) {
+        List<String> tables = new ArrayList<>();
+        collectScannedTables(node, tables);
+        return tables.isEmpty() ? "a subquery" : String.join(", ", tables);
+    }
+
+    private static void collectScannedTables(AbstractPlanNode node, List<String> tables) {
+        if (node instanceof AbstractScanPlanNode) {
+            String table = ((AbstractScanPlanNode) node).getTargetTableName();
+            if (table != null && ! tables.contains(table)) {
+                tables.add(table);
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            collectScannedTables(node.getChild(i), tables);
+        }
+    }
+}
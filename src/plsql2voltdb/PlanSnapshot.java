@@ -0,0 +1,211 @@
+package plsql2voltdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.types.PlanNodeType;
+
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+
+/**
+ * The plans of all translated statements, in a canonical text form that can
+ * be saved, and compared with a snapshot taken against another version of
+ * the DDL to find statements whose plans got worse.
+ *
+ * The file has one tab-separated record per line:
+ *
+ *   statement     PROCEDURE.STATEMENT
+ *   sql           NORMALIZED_SQL
+ *   partitioning  single | multi
+ *   scans         TABLE:NODE_TYPE ...
+ *   nodes         NODE_TYPE(CHILD ...) ...
+ *   explain       LINE
+ *
+ * where each record after "statement" belongs to the statement before it.
+ * Scans are listed in plan order, which for a join is the join order.
+ */
+public class PlanSnapshot {
+
+    private static class Entry {
+        String m_sql = "";
+        String m_partitioning = "";
+        List<String> m_scans = new ArrayList<>();
+        String m_nodes = "";
+        List<String> m_explain = new ArrayList<>();
+    }
+
+    private final Map<String, Entry> m_entries = new TreeMap<>();
+
+    public synchronized void add(String stmtName, AnalyzedSqlStmt stmt) {
+        CompiledPlan plan = stmt.getPlan();
+        Entry entry = new Entry();
+        entry.m_sql = StandAlonePlanner.normalizeSql(stmt.getRewrittenStmt());
+
+        boolean multiPartition = plan.subPlanGraph != null;
+        List<AbstractPlanNode> graphs = new ArrayList<>();
+        graphs.add(plan.rootPlanGraph);
+        if (plan.subPlanGraph != null) {
+            graphs.add(plan.subPlanGraph);
+        }
+
+        List<String> nodes = new ArrayList<>();
+        for (AbstractPlanNode graph : graphs) {
+            nodes.add(summarize(graph, entry.m_scans));
+            multiPartition |= hasReceive(graph);
+            for (String line : graph.toExplainPlanString().split("\n")) {
+                if (! line.trim().isEmpty()) {
+                    entry.m_explain.add(line);
+                }
+            }
+        }
+        entry.m_nodes = String.join(" ", nodes);
+        entry.m_partitioning = multiPartition ? "multi" : "single";
+
+        m_entries.put(stmtName, entry);
+    }
+
+    // The node types of a plan graph as nested lists, collecting scans on the way
+    private static String summarize(AbstractPlanNode node, List<String> scans) {
+        if (node instanceof AbstractScanPlanNode) {
+            scans.add(((AbstractScanPlanNode) node).getTargetTableName() + ":" + node.getPlanNodeType());
+        }
+
+        StringBuilder sb = new StringBuilder(node.getPlanNodeType().toString());
+        if (node.getChildCount() > 0) {
+            sb.append('(');
+            for (int i = 0; i < node.getChildCount(); ++i) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(summarize(node.getChild(i), scans));
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasReceive(AbstractPlanNode node) {
+        if (node.getPlanNodeType() == PlanNodeType.RECEIVE || node.getPlanNodeType() == PlanNodeType.MERGERECEIVE) {
+            return true;
+        }
+
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            if (hasReceive(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized void save(String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Entry> mapEntry : m_entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            lines.add("statement\t" + mapEntry.getKey());
+            lines.add("sql\t" + entry.m_sql);
+            lines.add("partitioning\t" + entry.m_partitioning);
+            lines.add("scans\t" + String.join(" ", entry.m_scans));
+            lines.add("nodes\t" + entry.m_nodes);
+            for (String line : entry.m_explain) {
+                lines.add("explain\t" + line);
+            }
+        }
+
+        Files.write(Paths.get(path), lines, StandardCharsets.UTF_8);
+    }
+
+    public static PlanSnapshot load(String path) throws IOException {
+        PlanSnapshot snapshot = new PlanSnapshot();
+        Entry entry = null;
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", 2);
+            String value = fields.length == 2 ? fields[1] : "";
+            if (fields[0].equals("statement")) {
+                entry = new Entry();
+                snapshot.m_entries.put(value, entry);
+            }
+            else if (entry == null) {
+                continue;
+            }
+            else if (fields[0].equals("sql")) {
+                entry.m_sql = value;
+            }
+            else if (fields[0].equals("partitioning")) {
+                entry.m_partitioning = value;
+            }
+            else if (fields[0].equals("scans")) {
+                entry.m_scans = value.isEmpty() ? new ArrayList<>() : Arrays.asList(value.split(" "));
+            }
+            else if (fields[0].equals("nodes")) {
+                entry.m_nodes = value;
+            }
+            else if (fields[0].equals("explain")) {
+                entry.m_explain.add(value);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Describe each statement in both snapshots whose plan in the newer one
+     * is worse: a table that used to be read through an index is now scanned
+     * sequentially, a statement that ran on one partition now runs on all of
+     * them, or the tables are joined in a different order.
+     */
+    public static List<String> findRegressions(PlanSnapshot older, PlanSnapshot newer) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Entry> mapEntry : older.m_entries.entrySet()) {
+            String stmtName = mapEntry.getKey();
+            Entry oldEntry = mapEntry.getValue();
+            Entry newEntry = newer.m_entries.get(stmtName);
+            if (newEntry == null) {
+                continue;
+            }
+
+            if (oldEntry.m_partitioning.equals("single") && newEntry.m_partitioning.equals("multi")) {
+                regressions.add(stmtName + ": now runs on every partition");
+            }
+
+            for (String oldScan : oldEntry.m_scans) {
+                String table = oldScan.substring(0, oldScan.lastIndexOf(':'));
+                if (oldScan.endsWith(":" + PlanNodeType.SEQSCAN)) {
+                    continue;
+                }
+                if (newEntry.m_scans.contains(table + ":" + PlanNodeType.SEQSCAN)) {
+                    regressions.add(stmtName + ": " + table + " is now scanned sequentially instead of by "
+                            + oldScan.substring(oldScan.lastIndexOf(':') + 1));
+                }
+            }
+
+            List<String> oldOrder = getTables(oldEntry.m_scans);
+            List<String> newOrder = getTables(newEntry.m_scans);
+            if (oldOrder.size() > 1 && ! oldOrder.equals(newOrder)) {
+                regressions.add(stmtName + ": join order changed from " + String.join(", ", oldOrder)
+                        + " to " + String.join(", ", newOrder));
+            }
+        }
+        return regressions;
+    }
+
+    private static List<String> getTables(List<String> scans) {
+        List<String> tables = new ArrayList<>();
+        for (String scan : scans) {
+            tables.add(scan.substring(0, scan.lastIndexOf(':')));
+        }
+        return tables;
+    }
+}
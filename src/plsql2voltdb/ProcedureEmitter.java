@@ -1,33 +1,52 @@
 package plsql2voltdb;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TreeSet;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.stringtemplate.v4.ST;
-import org.stringtemplate.v4.STGroupFile;
 
+import plsql2voltdb.Code.Template;
+import plsql2voltdb.ProcedureIr.Assign;
+import plsql2voltdb.ProcedureIr.Comment;
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Declare;
+import plsql2voltdb.ProcedureIr.Forall;
+import plsql2voltdb.ProcedureIr.If;
+import plsql2voltdb.ProcedureIr.Return;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
 import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
 import plsql_parser.PlSqlParser;
 import plsql_parser.PlSqlParser.Assignment_statementContext;
 import plsql_parser.PlSqlParser.BodyContext;
+import plsql_parser.PlSqlParser.Bounds_clauseContext;
 import plsql_parser.PlSqlParser.Cursor_loop_paramContext;
+import plsql_parser.PlSqlParser.Forall_statementContext;
+import plsql_parser.PlSqlParser.General_element_partContext;
+import plsql_parser.PlSqlParser.Id_expressionContext;
 import plsql_parser.PlSqlParser.If_statementContext;
 import plsql_parser.PlSqlParser.Loop_statementContext;
 import plsql_parser.PlSqlParser.ParameterContext;
@@ -35,27 +54,117 @@ import plsql_parser.PlSqlParser.Return_statementContext;
 import plsql_parser.PlSqlParser.Seq_of_statementsContext;
 import plsql_parser.PlSqlParser.Sql_statementContext;
 import plsql_parser.PlSqlParser.StatementContext;
+import plsql_parser.PlSqlParser.Type_declarationContext;
+import plsql_parser.PlSqlParser.Type_specContext;
 import plsql_parser.PlSqlParser.Variable_declarationContext;
 import plsql_parser.PlSqlParserBaseListener;
 
 public class ProcedureEmitter {
-    private final STGroupFile m_templateGroup;
+    // Prefix of the line in the header comment that holds the generation time
+    private static final String TIMESTAMP_LINE_PREFIX = " * on ";
+
+    // VoltDB won't execute a batch of more SQL statements than this
+    static final int MAX_BATCH_SIZE = 200;
+
+    private CodeRenderer m_renderer = CodeWriter.get();
     private final SqlAnalyzer m_analyzer;
     private final String m_package;
     private final String m_targetDirectory;
     private final TokenStream m_tokenStream;
+    private final PrintStream m_out;
+    private final PrintStream m_err;
+    private int m_optimizationLevel = PassManager.DEFAULT_LEVEL;
+    private boolean m_dumpIr = false;
+    private boolean m_lint = false;
+    private boolean m_writeSources = true;
+
+    // What can't be translated, so that nothing is written
+    private final List<String> m_errors = new ArrayList<>();
+
+    private final Map<String, String> m_generatedFiles = new LinkedHashMap<>();
 
-    private final Map<String, String> m_generatedFiles = new HashMap<>();
+    // Upper-case names of the tables, views and TABLE.COLUMN pairs
+    // that the translated code depends on
+    private final Set<String> m_referencedTables = new TreeSet<>();
+    private final Set<String> m_referencedColumns = new TreeSet<>();
+
+    private final List<PlanLinter.Finding> m_lintFindings = new ArrayList<>();
+
+    // Every statement of the translated procedures, by PROCEDURE.STATEMENT name
+    private final Map<String, AnalyzedSqlStmt> m_statements = new LinkedHashMap<>();
 
     public ProcedureEmitter(SqlAnalyzer analyzer, String targetDirectory, String packageName, TokenStream tokenStream) {
-        URL groupFile = ProcedureEmitter.class.getResource("voltdb-procedure.stg");
-        m_templateGroup = new STGroupFile(groupFile, "UTF-8", '<', '>');
+        this(analyzer, targetDirectory, packageName, tokenStream, System.out, System.err);
+    }
 
+    public ProcedureEmitter(SqlAnalyzer analyzer, String targetDirectory, String packageName, TokenStream tokenStream,
+            PrintStream out, PrintStream err) {
         m_analyzer = analyzer;
         m_package = packageName;
         m_targetDirectory = targetDirectory;
         m_tokenStream = tokenStream;
+        m_out = out;
+        m_err = err;
+    }
+
+    /**
+     * Render generated code with the given renderer rather than this
+     * thread's CodeWriter.
+     */
+    public void setRenderer(CodeRenderer renderer) {
+        m_renderer = renderer;
+    }
+
+    /**
+     * Run the optimizer passes of the given level, from 0 to PassManager.MAX_LEVEL.
+     */
+    public void setOptimizationLevel(int level) {
+        m_optimizationLevel = level;
+    }
+
+    /**
+     * Print the IR of each procedure to the output stream after each pass.
+     */
+    public void setDumpIr(boolean dumpIr) {
+        m_dumpIr = dumpIr;
+    }
+
+    /**
+     * Lint the plans of each procedure's statements.
+     */
+    public void setLint(boolean lint) {
+        m_lint = lint;
+    }
 
+    /**
+     * Write the Java source of each procedure, and not just its DDL.  The
+     * sources are still produced for getGeneratedSources.
+     */
+    public void setWriteSources(boolean writeSources) {
+        m_writeSources = writeSources;
+    }
+
+    private boolean isWritten(String fileName) {
+        return m_writeSources || ! fileName.endsWith(".java");
+    }
+
+    /**
+     * A hash of the template group, so that cached output can be
+     * invalidated when the templates change.
+     */
+    public static String getTemplateHash() {
+        try (InputStream in = ProcedureEmitter.class.getResourceAsStream("voltdb-procedure.stg")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+            return ContentHash.of(bytes.toByteArray());
+        }
+        catch (IOException ioExc) {
+            throw new RuntimeException("Could not read template group: " + ioExc.getMessage(), ioExc);
+        }
     }
 
     private static String getTimeString() {
@@ -64,160 +173,189 @@ public class ProcedureEmitter {
     }
 
     private class EmittingListener extends PlSqlParserBaseListener {
-        private Map<String, Integer> m_sqlStmtNameMap = new HashMap<>();
-        private Map<String, String> m_sqlStmts = new LinkedHashMap<>();
         private Map<Cursor_loop_paramContext, AnalyzedSqlStmt> m_cursorLoopMap = new HashMap<>();
 
-        private List<ParameterContext> m_inputParameters = new ArrayList<>();
-        private ParameterContext m_outputParameter = null;
-        private List<Variable_declarationContext> m_constants = new ArrayList<>();
-        private List<Variable_declarationContext> m_localVariables = new ArrayList<>();
-        private Stack<Var> m_loopScopeVars = new Stack<>();
-
-        private Stack<List<ST>> m_stmtBlockStack = new Stack<>();
+        private ProcedureIr m_ir = null;
+        private SymbolTable m_symbols = new SymbolTable();
+        private Stack<List<Stmt>> m_stmtBlockStack = new Stack<>();
 
         private int m_lastStatementTokenOffset = 0;
+        private int m_indexCount = 0;
 
-        // Could memo-ize this at some point...
         private Map<String, Var> getVisibleVariables() {
-            Map<String, Var> vars = new HashMap<>();
-
-            for (ParameterContext paramCtx : m_inputParameters) {
-                Var v = Var.fromPlSql(m_analyzer, paramCtx);
-                vars.put(v.getName(), v);
-            }
-
-            Var outputVar = Var.fromPlSql(m_analyzer, m_outputParameter);
-            vars.put(outputVar.getName(), outputVar);
+            return m_symbols.getVisibleVariables();
+        }
 
-            for (Variable_declarationContext varCtx : m_constants) {
-                Var v = Var.fromPlSql(m_analyzer, varCtx);
-                vars.put(v.getName(), v);
+        // An expression over literals and constants is written as its value.
+        // The value of an expression of a given Java type is converted to it.
+        private String formatExpression(Map<String, Var> vars, ParserRuleContext expr, String javaType) {
+            if (m_optimizationLevel >= 1 && expr.getStart() != expr.getStop()) {
+                Object value = ConstantFolder.fold(m_tokenStream, vars, expr);
+                // Folding isn't exact for a BigDecimal, unless the value is an integer
+                if (value != null && ! ("BigDecimal".equals(javaType) && value instanceof Double)) {
+                    String type = value instanceof Long ? "long" : value instanceof Double ? "double" : "String";
+                    String literal = ConstantFolder.toJavaLiteral(value);
+                    return TypeTranslator.convert(literal, type, javaType);
+                }
             }
+            return ExpressionFormatter.format(m_tokenStream, vars, expr, javaType, m_ir.getImports());
+        }
 
-            for (Variable_declarationContext varCtx : m_localVariables) {
-                Var v = Var.fromPlSql(m_analyzer, varCtx);
-                vars.put(v.getName(), v);
+        private void addColumnDependency(Type_specContext typeSpec) {
+            if (typeSpec.PERCENT_TYPE() == null) {
+                return;
             }
 
-            for (Var v : m_loopScopeVars) {
-                vars.put(v.getName(), v);
+            List<Id_expressionContext> ids = typeSpec.type_name().id_expression();
+            if (ids.size() == 2) {
+                m_referencedColumns.add((ids.get(0).getText() + "." + ids.get(1).getText()).toUpperCase());
             }
-
-            return vars;
         }
 
+        @Override
+        public void enterCreate_procedure_body(PlSqlParser.Create_procedure_bodyContext ctx) {
+            // A script may hold several procedures, each its own class
+            m_cursorLoopMap.clear();
+            m_indexCount = 0;
+            m_ir = new ProcedureIr(ctx.procedure_name().getText());
 
-
-        String getOutputParameterName() {
-            return m_outputParameter.parameter_name().getText();
+            m_symbols.pushScope();
         }
 
         @Override
         public void exitParameter(ParameterContext ctx) {
+            addColumnDependency(ctx.type_spec());
+            Var var = Var.fromPlSql(m_analyzer, m_symbols, ctx);
+            m_symbols.declare(var);
             assert(ctx.INOUT().isEmpty());
             if (!ctx.OUT().isEmpty()) {
                 assert (ctx.IN().isEmpty());
-                assert (m_outputParameter == null);
-                m_outputParameter = ctx;
+                assert (m_ir.getOutput() == null);
+                m_ir.setOutput(var);
             }
             else {
-                m_inputParameters.add(ctx);
+                m_ir.addParameter(var);
             }
         }
 
         @Override
         public void exitVariable_declaration(Variable_declarationContext ctx) {
+            addColumnDependency(ctx.type_spec());
+            Var var = Var.fromPlSql(m_analyzer, m_symbols, ctx);
+            m_symbols.declare(var);
+
+            String init = null;
+            if (ctx.default_value_part() != null) {
+                init = formatExpression(getVisibleVariables(), ctx.default_value_part().expression(), var.getJavaType());
+                if (ctx.CONSTANT() != null && m_optimizationLevel >= 1) {
+                    // Its value can be written wherever the constant is used, even in SQL
+                    Object value = ConstantFolder.fold(m_tokenStream, getVisibleVariables(), ctx.default_value_part().expression());
+                    var.setConstantValue(ConstantFolder.convert(value, var.getJavaType()));
+                }
+            }
+            else if (var.isCollection()) {
+                // An empty collection
+                init = "new " + var.getJavaType().replaceFirst("\\[", "[0");
+            }
+
             if (ctx.CONSTANT() != null) {
-                m_constants.add(ctx);
+                m_ir.addConstant(var, init);
             }
             else {
-                m_localVariables.add(ctx);
+                m_ir.addLocal(var, init);
             }
         }
 
-        private String getSqlStmtName(AnalyzedSqlStmt stmt) {
-            String prefix = stmt.getNamePrefix();
-            Integer prefixCount = m_sqlStmtNameMap.get(prefix);
-            String name = prefix;
-            if (prefixCount != null) {
-                name += prefixCount.toString();
-                m_sqlStmtNameMap.put(prefix, prefixCount.intValue() + 1);
+        // Collection types are held as arrays of their element type
+        @Override
+        public void exitType_declaration(Type_declarationContext ctx) {
+            Type_specContext elementType;
+            if (ctx.table_type_def() != null) {
+                if (ctx.table_type_def().table_indexed_by_part() != null) {
+                    // An associative array may be sparse or keyed by strings, so it isn't an array
+                    m_errors.add("Procedure " + m_ir.getName() + ": associative array type "
+                            + ctx.identifier().getText() + " (INDEX BY) is not supported");
+                    return;
+                }
+                elementType = ctx.table_type_def().type_spec();
+            }
+            else if (ctx.varray_type_def() != null) {
+                elementType = ctx.varray_type_def().type_spec();
             }
             else {
-                name += "0";
-                m_sqlStmtNameMap.put(prefix, 1);
+                return;
             }
 
-            return name;
+            addColumnDependency(elementType);
+            String javaType = TypeTranslator.translate(m_analyzer, m_symbols, elementType);
+            if (javaType != null) {
+                m_symbols.declareType(ctx.identifier().getText(), javaType + "[]");
+            }
         }
 
         @Override
         public void exitSql_statement(Sql_statementContext ctx) {
             AnalyzedSqlStmt analyzedStmt = m_analyzer.analyze(m_tokenStream, getVisibleVariables(), ctx);
+            m_referencedTables.addAll(analyzedStmt.getReferencedTables());
+            m_stmtBlockStack.peek().add(m_ir.newSqlOp(analyzedStmt, null));
+        }
 
-            String stmtName = getSqlStmtName(analyzedStmt);
-            m_sqlStmts.put(stmtName, ExpressionFormatter.formatAsJavaString(analyzedStmt.getRewrittenStmt()));
-
-            ST queueSql = m_templateGroup.getInstanceOf("queue_sql_stmt");
-            queueSql.add("stmt_name", stmtName);
-            for (String inputParam : analyzedStmt.getInputParams()) {
-                queueSql.add("params", inputParam);
-            }
-            m_stmtBlockStack.peek().add(queueSql);
-
-            List<String> outputParams = analyzedStmt.getOutputParams();
-            ST execSql = m_templateGroup.getInstanceOf("execute_sql_stmt");
-            switch (outputParams.size()) {
-            case 0:
-                // Just execute the SQL.  No need to assign result to anything.
-                m_stmtBlockStack.peek().add(execSql);
-                break;
-            case 1:
-                if (analyzedStmt.producesSingleIntegerColumn()) {
-                    execSql.add("var_name", outputParams.get(0));
-                    execSql.add("post_text", "[0].asScalarLong()");
-                    m_stmtBlockStack.peek().add(execSql);
-                    break;
+        // The visible variables that appear anywhere in the given context
+        private Set<String> getReferencedVariables(ParserRuleContext ctx) {
+            Map<String, Var> visibleVars = getVisibleVariables();
+            Set<String> refs = new TreeSet<>();
+            Interval interval = ctx.getSourceInterval();
+            for (int i = interval.a; i <= interval.b; ++i) {
+                String text = m_tokenStream.get(i).getText();
+                if (visibleVars.containsKey(text)) {
+                    refs.add(text);
                 }
-                // otherwise, fall through to general case
-            default: {
-                execSql.add("var_name", "vt");
-                execSql.add("post_text", "[0]");
-                m_stmtBlockStack.peek().add(execSql);
-
-                // Extract each field to local variables
-                ST advance = m_templateGroup.getInstanceOf("freeform_line");
-                advance.add("text", "vt.advanceRow();");
-                m_stmtBlockStack.peek().add(advance);
-                int i = 0;
-                for (String var : analyzedStmt.getOutputParams()) {
-                    ST assign = m_templateGroup.getInstanceOf("assignment_stmt");
-                    assign.add("lhs", var);
-                    String voltTableAccessor = ExpressionFormatter.getVoltTableAccessor(analyzedStmt.getOutputSchema(), i);
-                    assert (voltTableAccessor != null);
-                    assign.add("rhs", "vt." + voltTableAccessor);
-                    m_stmtBlockStack.peek().add(assign);
-                    ++i;
-                }
-
-            }
             }
+            return refs;
         }
 
         @Override
         public void exitAssignment_statement(Assignment_statementContext ctx) {
-            ST assignStmt = m_templateGroup.getInstanceOf("assignment_stmt");
-            assignStmt.add("lhs", ctx.general_element().getText());
-            assignStmt.add("rhs", ExpressionFormatter.format(m_tokenStream, getVisibleVariables(), ctx.expression()));
-            m_stmtBlockStack.peek().add(assignStmt);
+            String lhs = ctx.general_element().getText();
+            String target = lhs;
+            Var targetVar = m_symbols.lookup(lhs);
+            String javaType = targetVar != null ? targetVar.getJavaType() : null;
+            Set<String> uses = getReferencedVariables(ctx.expression());
+
+            // An element of a collection: coll(i) := ...
+            General_element_partContext part = ctx.general_element().general_element_part(0);
+            Var collection = m_symbols.lookup(part.id_expression(0).getText());
+            if (collection != null && collection.isCollection() && part.function_argument() != null
+                    && part.function_argument().argument().size() == 1) {
+                target = collection.getName();
+                javaType = collection.getElementJavaType();
+                String index = formatExpression(getVisibleVariables(), part.function_argument().argument(0), "long");
+                Set<String> indexUses = getReferencedVariables(part.function_argument());
+                if (indexUses.contains(target)) {
+                    // Growing the array would change the index, as in coll(coll.COUNT + 1)
+                    String indexVar = "index" + m_indexCount++;
+                    m_ir.addLocal(Var.fromJava("long", indexVar), null);
+                    m_stmtBlockStack.peek().add(new Assign(indexVar, index, indexVar, new TreeSet<>(indexUses)));
+                    index = indexVar;
+                    indexUses = new TreeSet<>(Collections.singleton(indexVar));
+                }
+                lhs = ExpressionFormatter.formatElement(target, index);
+                uses.addAll(indexUses);
+                uses.add(target);
+
+                // The array grows to hold an element past its end
+                indexUses.add(target);
+                m_stmtBlockStack.peek().add(new Assign(target, ExpressionFormatter.formatGrowth(target, index), target, indexUses));
+                m_ir.addImport("java.util.Arrays");
+            }
+
+            String rhs = formatExpression(getVisibleVariables(), ctx.expression(), javaType);
+            m_stmtBlockStack.peek().add(new Assign(lhs, rhs, target, uses));
         }
 
         @Override
         public void exitReturn_statement(Return_statementContext ctx) {
-            ST returnStmt = m_templateGroup.getInstanceOf("return_stmt");
-            returnStmt.add("ret_val", getOutputParameterName());
-            m_stmtBlockStack.peek().add(returnStmt);
+            m_stmtBlockStack.peek().add(new Return(m_ir.getOutput().getName()));
         }
 
         @Override
@@ -241,9 +379,7 @@ public class ProcedureEmitter {
                     commentText = commentText.substring(2);
                     commentText = commentText.trim();
                     commentText = "// " + commentText;
-                    ST commentST = m_templateGroup.getInstanceOf("freeform_line");
-                    commentST.add("text", commentText);
-                    m_stmtBlockStack.peek().add(commentST);
+                    m_stmtBlockStack.peek().add(new Comment(commentText));
                 }
             }
             m_lastStatementTokenOffset = ctx.getStop().getTokenIndex() + 2;
@@ -257,15 +393,10 @@ public class ProcedureEmitter {
         @Override
         public void exitIf_statement(If_statementContext ctx) {
             // For an if statement, get the seq_of_statements
-            List<ST> thenStmts = m_stmtBlockStack.pop();
-            ST stmtList = m_templateGroup.getInstanceOf("slist");
-            stmtList.add("stmts", thenStmts);
-
-            ST ifStmt = m_templateGroup.getInstanceOf("if_stmt");
-            String cond = ExpressionFormatter.format(m_tokenStream, getVisibleVariables(), ctx.condition().expression());
-            ifStmt.add("cond", cond);
-            ifStmt.add("then_block", stmtList);
-            m_stmtBlockStack.peek().add(ifStmt);
+            List<Stmt> thenBlock = m_stmtBlockStack.pop();
+            String cond = ExpressionFormatter.format(m_tokenStream, getVisibleVariables(), ctx.condition().expression(),
+                    m_ir.getImports());
+            m_stmtBlockStack.peek().add(new If(cond, getReferencedVariables(ctx.condition().expression()), thenBlock));
         }
 
         @Override
@@ -273,6 +404,7 @@ public class ProcedureEmitter {
             Cursor_loop_paramContext cursorLoopParam = ctx.cursor_loop_param();
             AnalyzedSqlStmt analyzedStmt = m_analyzer.analyze(m_tokenStream, getVisibleVariables(), cursorLoopParam.select_statement());
             m_cursorLoopMap.put(cursorLoopParam, analyzedStmt);
+            m_referencedTables.addAll(analyzedStmt.getReferencedTables());
             assert(cursorLoopParam != null);
 
             String rowVarName = cursorLoopParam.record_name().getText();
@@ -282,7 +414,8 @@ public class ProcedureEmitter {
             //   rowVar.field
             // to
             //   rowVar.getString("field")
-            m_loopScopeVars.push(Var.fromSchema(analyzedStmt.getOutputSchema(), rowVarName));
+            m_symbols.pushScope();
+            m_symbols.declare(Var.fromSchema(analyzedStmt.getOutputSchema(), rowVarName));
         }
 
         @Override
@@ -295,186 +428,313 @@ public class ProcedureEmitter {
              *
              *  -->
              *
-             * VoltTable <row-var>;
-             * voltQueueSQL(<sql-stmt>);
-             * <row-var> = voltExecuteSQL()[0];
-             * while (<row-var>.advanceRow()) {
-             *     ...<row-var>.get<String | Long>("<field>")...
-             * }
+             * declare VoltTable <row-var>
+             * sql <sql-stmt> into <row-var>
+             * for each row of <row-var>
+             *     ...
              */
 
             Cursor_loop_paramContext cursorLoopParam = ctx.cursor_loop_param();
             assert(cursorLoopParam != null);
 
-            // Add the SQL statement to the statements used by the procedure
             AnalyzedSqlStmt analyzedStmt = m_cursorLoopMap.get(cursorLoopParam);
             assert (analyzedStmt != null);
-            String stmtName = getSqlStmtName(analyzedStmt);
-            m_sqlStmts.put(stmtName, ExpressionFormatter.formatAsJavaString(analyzedStmt.getRewrittenStmt()));
 
             // Pop the loop body off of the stack.
-            List<ST> loopBody = m_stmtBlockStack.pop();
-            ST stmtList = m_templateGroup.getInstanceOf("slist");
-            stmtList.add("stmts", loopBody);
-
-            // VoltTable declaration
+            List<Stmt> loopBody = m_stmtBlockStack.pop();
             String rowVarName = cursorLoopParam.record_name().getText();
-            ST rowVarDecl = m_templateGroup.getInstanceOf("variable_decl");
-            rowVarDecl.add("var_type", "VoltTable");
-            rowVarDecl.add("var_name", rowVarName);
-            m_stmtBlockStack.peek().add(rowVarDecl);
+            m_stmtBlockStack.peek().add(new Declare("VoltTable", rowVarName, null));
+            m_stmtBlockStack.peek().add(m_ir.newSqlOp(analyzedStmt, rowVarName));
+            m_stmtBlockStack.peek().add(new CursorLoop(rowVarName, loopBody));
 
-            ST queueSql = m_templateGroup.getInstanceOf("queue_sql_stmt");
-            queueSql.add("stmt_name", stmtName);
-            queueSql.add("params", analyzedStmt.getInputParams());
-            m_stmtBlockStack.peek().add(queueSql);
+            m_symbols.popScope();
+        }
 
-            ST executeSql = m_templateGroup.getInstanceOf("execute_sql_stmt");
-            executeSql.add("var_name", rowVarName);
-            executeSql.add("post_text", "[0]");
-            m_stmtBlockStack.peek().add(executeSql);
+        @Override
+        public void enterForall_statement(Forall_statementContext ctx) {
+            m_symbols.pushScope();
+            m_symbols.declare(Var.fromJava("long", ctx.index_name().getText()));
+            m_stmtBlockStack.push(new ArrayList<>());
+        }
 
-            ST whileStmt = m_templateGroup.getInstanceOf("while_stmt");
-            whileStmt.add("cond", rowVarName + "." + "advanceRow()");
-            whileStmt.add("body", stmtList);
-            m_stmtBlockStack.peek().add(whileStmt);
+        @Override
+        public void exitForall_statement(Forall_statementContext ctx) {
+            List<Stmt> body = m_stmtBlockStack.pop();
+            assert (body.get(body.size() - 1) instanceof SqlOp);
+            String control = getForallControl(ctx.index_name().getText(), ctx.bounds_clause());
+            m_stmtBlockStack.peek().add(new Forall(control, getReferencedVariables(ctx.bounds_clause()), body));
 
-            m_loopScopeVars.pop();
+            m_symbols.popScope();
         }
 
-        private ST getVarDeclST(Variable_declarationContext varDeclCtx) {
-            ST varDecl = m_templateGroup.getInstanceOf("variable_decl");
-            varDecl.add("var_type", TypeTranslator.translate(m_analyzer, varDeclCtx.type_spec()));
-            varDecl.add("var_name", varDeclCtx.identifier().getText());
-
-            if (varDeclCtx.default_value_part() != null) {
-                varDecl.add("init", ExpressionFormatter.format(m_tokenStream, getVisibleVariables(), varDeclCtx.default_value_part().expression()));
+        // The control of the Java for loop over the bounds of a FORALL
+        private String getForallControl(String index, Bounds_clauseContext bounds) {
+            Map<String, Var> vars = getVisibleVariables();
+            if (bounds.VALUES() != null) {
+                return "long " + index + " : " + bounds.index_name().getText();
             }
 
-            if (varDeclCtx.CONSTANT() != null) {
-                // Create a constant declaration
-                varDecl.add("is_static", true);
-                varDecl.add("is_final", true);
-
+            String lower;
+            String upper;
+            if (bounds.INDICES() != null) {
+                // Collections are dense, so their indices are 1 to COUNT
+                String count = ExpressionFormatter.formatAttribute(bounds.collection_name().getText(), "COUNT");
+                if (bounds.between_bound() != null) {
+                    lower = "Math.max(" + formatExpression(vars, bounds.between_bound().lower_bound(), "long") + ", 1)";
+                    upper = "Math.min(" + formatExpression(vars, bounds.between_bound().upper_bound(), "long") + ", " + count + ")";
+                }
+                else {
+                    lower = "1";
+                    upper = count;
+                }
+            }
+            else {
+                lower = formatExpression(vars, bounds.lower_bound(), "long");
+                upper = formatExpression(vars, bounds.upper_bound(), "long");
             }
 
-            return varDecl;
-        }
-
-        private ST getVarDeclST(ParameterContext parCtx) {
-            ST varDecl = m_templateGroup.getInstanceOf("variable_decl");
-            varDecl.add("var_type", TypeTranslator.translate(m_analyzer, parCtx.type_spec()));
-            varDecl.add("var_name", parCtx.parameter_name().getText());
-
-            return varDecl;
+            return "long " + index + " = " + lower + "; " + index + " <= " + upper + "; ++" + index;
         }
 
-        private ST getVarDeclST(String javaType, String varName, String init) {
-            ST varDecl = m_templateGroup.getInstanceOf("variable_decl");
-            varDecl.add("var_type", javaType);
-            varDecl.add("var_name", varName);
-            varDecl.add("init", init);
+        @Override
+        public void exitCreate_procedure_body(PlSqlParser.Create_procedure_bodyContext ctx) {
+            assert(m_stmtBlockStack.size() == 1);
+            m_ir.getBody().addAll(m_stmtBlockStack.pop());
 
-            return varDecl;
+            PassManager passManager = new PassManager(m_optimizationLevel);
+            if (m_dumpIr) {
+                passManager.setDump(m_out);
+            }
+            passManager.run(m_ir);
 
-        }
+            String className = m_ir.getName();
+            for (String diagnostic : m_ir.getDiagnostics()) {
+                m_out.println("Procedure " + className + ": " + diagnostic);
+            }
 
-        @Override
-        public void exitCreate_procedure_body(PlSqlParser.Create_procedure_bodyContext ctx) {
-            String className = ctx.procedure_name().getText();
-            ST srcFileST = m_templateGroup.getInstanceOf("src_file");
+            Code srcFileST = new Code(Template.SRC_FILE);
             srcFileST.add("header_comment",
                     "/**\n"
                     + " * " + className + ".java\n"
                     + " *\n"
                     + " * Generated from PL/SQL code\n"
                     + " * by plsqltranslator\n"
-                    + " * on " + getTimeString() + "\n"
+                    + TIMESTAMP_LINE_PREFIX + getTimeString() + "\n"
                     + " */");
             srcFileST.add("package", m_package);
 
-            ST classDef = m_templateGroup.getInstanceOf("class_def");
-            classDef.add("name", className);
+            Map<String, AnalyzedSqlStmt> analyzedStmts = m_ir.nameStatements();
+            IrLowerer lowerer = new IrLowerer(m_ir);
+            Code classDef = lowerer.lowerClass(analyzedStmts);
+            srcFileST.add("imported_pkgs", m_ir.getImports());
+            srcFileST.add("class_def", classDef);
+            String srcFile = m_renderer.render(srcFileST);
+            m_generatedFiles.put(className + ".java", srcFile);
 
-            for (Variable_declarationContext varDecl : m_constants) {
-                ST decl = getVarDeclST(varDecl);
-                classDef.add("constant_decls", decl);
+            List<String> paramNames = new ArrayList<>();
+            for (Var param : m_ir.getParameters()) {
+                paramNames.add(param.getName());
             }
+            PartitionAnalyzer.Result partitioning = new PartitionAnalyzer(m_analyzer).analyze(analyzedStmts, paramNames);
+            m_generatedFiles.put(className + ".sql", getProcedureDdl(className, partitioning));
 
-            ST runMethod = m_templateGroup.getInstanceOf("run_method");
-            runMethod.add("ret_type", TypeTranslator.translate(m_analyzer, m_outputParameter.type_spec()));
-            for (ParameterContext param : m_inputParameters) {
-                String javaType = TypeTranslator.translate(m_analyzer, param.type_spec());
-                String paramName = param.parameter_name().getText();
-                runMethod.addAggr("args.{ type, name }", javaType, paramName);
+            PlanLinter linter = m_lint ? new PlanLinter(m_analyzer) : null;
+            for (Map.Entry<String, AnalyzedSqlStmt> stmt : analyzedStmts.entrySet()) {
+                if (linter != null) {
+                    m_lintFindings.addAll(linter.lint(className, stmt.getKey(), stmt.getValue()));
+                }
+                m_statements.put(className + "." + stmt.getKey(), stmt.getValue());
             }
 
-            assert(m_stmtBlockStack.size() == 1);
-            // There is one ST for each statement
-            List<ST> methodStmts = m_stmtBlockStack.pop();
+            m_symbols.popScope();
+        }
 
-            // Add the output variable declaration to the beginning
-            List<ST> allStmts = new ArrayList<>();
-            allStmts.add(getVarDeclST(m_outputParameter));
-            allStmts.add(getVarDeclST("VoltTable", "vt", null));
-            for (Variable_declarationContext varDeclCtx : m_localVariables) {
-                allStmts.add(getVarDeclST(varDeclCtx));
+        /**
+         * The DDL that declares the procedure, partitioned if every statement allows it.
+         * Also explains the decision on the output stream.
+         */
+        private String getProcedureDdl(String className, PartitionAnalyzer.Result partitioning) {
+            String qualifiedClassName = getQualifiedClassName(m_package, className);
+            StringBuilder sb = new StringBuilder();
+            sb.append("-- ").append(className).append(".sql\n");
+            sb.append("-- Generated from PL/SQL code by plsqltranslator\n");
+
+            if (partitioning.isSinglePartition()) {
+                m_out.println("Procedure " + className + " is single-partition on "
+                        + partitioning.getTable() + "." + partitioning.getColumn()
+                        + " by parameter " + partitioning.getParameterIndex() + " (" + partitioning.getParameter() + ")");
+                sb.append("CREATE PROCEDURE PARTITION ON TABLE ").append(partitioning.getTable())
+                        .append(" COLUMN ").append(partitioning.getColumn())
+                        .append(" PARAMETER ").append(partitioning.getParameterIndex())
+                        .append(" FROM CLASS ").append(qualifiedClassName).append(";\n");
+                return sb.toString();
             }
 
-            allStmts.add(m_templateGroup.getInstanceOf("empty_line"));
-
-            // Add the final return statement
-            ST returnStmt = m_templateGroup.getInstanceOf("return_stmt");
-            returnStmt.add("ret_val", getOutputParameterName());
-            methodStmts.add(returnStmt);
-            allStmts.addAll(methodStmts);
-
-            ST slist = m_templateGroup.getInstanceOf("slist");
-            slist.add("stmts", allStmts);
-            runMethod.add("stmts", slist);
-
-            for (Map.Entry<String, String> mapEntry : m_sqlStmts.entrySet()) {
-                ST sqlStmtST = m_templateGroup.getInstanceOf("sql_stmt");
-                sqlStmtST.add("name", mapEntry.getKey());
-                sqlStmtST.add("java_string", mapEntry.getValue());
-                classDef.add("sql_stmts", sqlStmtST);
+            m_out.println("Procedure " + className + " is multi-partition:");
+            sb.append("-- Multi-partition because:\n");
+            for (String reason : partitioning.getReasons()) {
+                m_out.println("    " + reason);
+                sb.append("--   ").append(reason).append("\n");
             }
-
-            classDef.add("methods", runMethod);
-
-            srcFileST.add("class_def", classDef);
-            String srcFile = srcFileST.render();
-            m_generatedFiles.put(className + ".java", srcFile);
+            sb.append("CREATE PROCEDURE FROM CLASS ").append(qualifiedClassName).append(";\n");
+            return sb.toString();
         }
 
     }
-    public int emit(ParseTree tree) {
+    /**
+     * Translate the procedures of a parse tree.  Nothing is written until
+     * writeFiles is called, so files can be translated in parallel and still
+     * written in the order they were given.
+     */
+    public void emit(ParseTree tree) {
         ParseTreeWalker walker = new ParseTreeWalker();
         EmittingListener listener = new EmittingListener();
         walker.walk(listener, tree);
+    }
 
-        Path pkgDir = Paths.get(m_targetDirectory, m_package);
+    /**
+     * Write the files produced by the last call to emit, or if some of it
+     * couldn't be translated, print why and write nothing.
+     */
+    public int writeFiles(PrintStream out, PrintStream err) {
+        if (! m_errors.isEmpty()) {
+            for (String error : m_errors) {
+                err.println(error);
+            }
+            return 1;
+        }
+
+        Path pkgDir = getPackageDirectory();
         if (! Files.exists(pkgDir)) {
             try {
                 Files.createDirectories(pkgDir);
             }
             catch (IOException ioExc) {
-                System.err.println("Could not create package directory: " + ioExc.getMessage());
+                err.println("Could not create package directory: " + ioExc.getMessage());
             }
         }
 
         for (Entry<String, String> entry : m_generatedFiles.entrySet()) {
-            Path javaSrc = Paths.get(m_targetDirectory, m_package, entry.getKey());
-            System.out.println("Writing file " + javaSrc);
-            try (PrintWriter out = new PrintWriter(javaSrc.toString())) {
-                out.print(entry.getValue());
+            if (! isWritten(entry.getKey())) {
+                continue;
+            }
+
+            Path javaSrc = pkgDir.resolve(entry.getKey());
+            if (isUnchanged(javaSrc, entry.getValue())) {
+                // Leave the file alone so its timestamp doesn't trigger downstream rebuilds
+                out.println("Unchanged file " + javaSrc);
+                continue;
+            }
+
+            out.println("Writing file " + javaSrc);
+            try (PrintWriter writer = new PrintWriter(javaSrc.toString())) {
+                writer.print(entry.getValue());
             }
             catch (Exception exc) {
-                System.err.println("Could not write source file: " + exc.getMessage());
+                err.println("Could not write source file: " + exc.getMessage());
                 return 1;
             }
         }
 
         return 0;
     }
+
+    /**
+     * The Java sources produced by the last call to emit, by qualified class name.
+     */
+    public Map<String, String> getGeneratedSources() {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Entry<String, String> entry : m_generatedFiles.entrySet()) {
+            if (entry.getKey().endsWith(".java")) {
+                String className = entry.getKey().substring(0, entry.getKey().length() - ".java".length());
+                sources.put(getQualifiedClassName(m_package, className), entry.getValue());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * The paths of all files written by the last call to emit, whether or
+     * not they have to be rewritten.
+     */
+    public List<Path> getOutputFiles() {
+        List<Path> files = new ArrayList<>();
+        for (String fileName : m_generatedFiles.keySet()) {
+            if (isWritten(fileName)) {
+                files.add(getPackageDirectory().resolve(fileName));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A class name qualified by its package, or just the class name
+     * when the classes are in the default package.
+     */
+    static String getQualifiedClassName(String packageName, String className) {
+        return packageName != null ? packageName + "." + className : className;
+    }
+
+    private Path getPackageDirectory() {
+        return m_package != null ? Paths.get(m_targetDirectory, m_package) : Paths.get(m_targetDirectory);
+    }
+
+    /**
+     * Upper-case names of the tables and views used by SQL statements
+     * in the translated code.
+     */
+    public Set<String> getReferencedTables() {
+        return m_referencedTables;
+    }
+
+    /**
+     * What the plan linter found in the statements of the translated procedures,
+     * if linting was requested.
+     */
+    public List<PlanLinter.Finding> getLintFindings() {
+        return m_lintFindings;
+    }
+
+    /**
+     * The SQL statements of the translated procedures, keyed by PROCEDURE.STATEMENT.
+     */
+    public Map<String, AnalyzedSqlStmt> getStatements() {
+        return m_statements;
+    }
+
+    /**
+     * Upper-case TABLE.COLUMN names of the columns used in %TYPE declarations.
+     */
+    public Set<String> getReferencedColumns() {
+        return m_referencedColumns;
+    }
+
+    // True if the file on disk differs from the new source only in the generation time
+    private static boolean isUnchanged(Path javaSrc, String newSrc) {
+        if (! Files.exists(javaSrc)) {
+            return false;
+        }
+
+        try {
+            String oldSrc = new String(Files.readAllBytes(javaSrc), StandardCharsets.UTF_8);
+            return withoutTimestamp(oldSrc).equals(withoutTimestamp(newSrc));
+        }
+        catch (IOException ioExc) {
+            return false;
+        }
+    }
+
+    private static String withoutTimestamp(String src) {
+        int start = src.indexOf("\n" + TIMESTAMP_LINE_PREFIX);
+        if (start == -1) {
+            return src;
+        }
+
+        int end = src.indexOf('\n', start + 1);
+        if (end == -1) {
+            return src.substring(0, start);
+        }
+
+        return src.substring(0, start) + src.substring(end);
+    }
 }
@@ -0,0 +1,720 @@
+package plsql2voltdb;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+
+/**
+ * A translated procedure in the form the optimizer works on: its typed
+ * variables and a tree of statements, in which every statement knows the
+ * variables it assigns and reads and the tables it writes.  The emitter
+ * builds it from the parse tree, the passes of a PassManager rewrite it,
+ * and IrLowerer turns it into Java.
+ *
+ * Expressions are held as the Java they translate to.
+ */
+public class ProcedureIr {
+
+    /**
+     * A statement of the procedure body.  The sets of a statement that
+     * contains blocks include those of the statements in the blocks.
+     */
+    public static abstract class Stmt {
+
+        public Set<String> getDefs() {
+            Set<String> defs = new TreeSet<>(getOwnDefs());
+            for (List<Stmt> block : getBlocks()) {
+                for (Stmt stmt : block) {
+                    defs.addAll(stmt.getDefs());
+                }
+            }
+            return defs;
+        }
+
+        public Set<String> getUses() {
+            Set<String> uses = new TreeSet<>(getOwnUses());
+            for (List<Stmt> block : getBlocks()) {
+                for (Stmt stmt : block) {
+                    uses.addAll(stmt.getUses());
+                }
+            }
+            return uses;
+        }
+
+        /**
+         * Upper-case names of the tables the statement's DML writes.
+         */
+        public Set<String> getModifiedTables() {
+            Set<String> tables = new TreeSet<>(getOwnModifiedTables());
+            for (List<Stmt> block : getBlocks()) {
+                for (Stmt stmt : block) {
+                    tables.addAll(stmt.getModifiedTables());
+                }
+            }
+            return tables;
+        }
+
+        /**
+         * True if the statement, or any statement in its blocks, executes SQL.
+         */
+        public boolean executesSql() {
+            for (List<Stmt> block : getBlocks()) {
+                for (Stmt stmt : block) {
+                    if (stmt.executesSql()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The blocks of statements nested in this one.
+         */
+        public List<List<Stmt>> getBlocks() {
+            return Collections.emptyList();
+        }
+
+        Set<String> getOwnDefs() {
+            return Collections.emptySet();
+        }
+
+        Set<String> getOwnUses() {
+            return Collections.emptySet();
+        }
+
+        Set<String> getOwnModifiedTables() {
+            return Collections.emptySet();
+        }
+
+        // One line for IR dumps
+        abstract String describe();
+    }
+
+    public static class Comment extends Stmt {
+        private final String m_text;
+
+        public Comment(String text) {
+            m_text = text;
+        }
+
+        public String getText() {
+            return m_text;
+        }
+
+        @Override
+        String describe() {
+            return m_text;
+        }
+    }
+
+    /**
+     * A local Java variable that the translation introduces.
+     */
+    public static class Declare extends Stmt {
+        private final String m_javaType;
+        private final String m_name;
+        private final String m_init;
+
+        public Declare(String javaType, String name, String init) {
+            m_javaType = javaType;
+            m_name = name;
+            m_init = init;
+        }
+
+        public String getJavaType() {
+            return m_javaType;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public String getInit() {
+            return m_init;
+        }
+
+        @Override
+        String describe() {
+            return "declare " + m_javaType + " " + m_name + (m_init != null ? " = " + m_init : "");
+        }
+    }
+
+    public static class Assign extends Stmt {
+        private final String m_lhs;
+        private final String m_rhs;
+        private final String m_target;
+        private final Set<String> m_uses;
+
+        /**
+         * Assign to lhs, which is the variable target or an element of it.
+         */
+        public Assign(String lhs, String rhs, String target, Set<String> uses) {
+            m_lhs = lhs;
+            m_rhs = rhs;
+            m_target = target;
+            m_uses = uses;
+        }
+
+        public String getLhs() {
+            return m_lhs;
+        }
+
+        public String getRhs() {
+            return m_rhs;
+        }
+
+        public String getTarget() {
+            return m_target;
+        }
+
+        /**
+         * True if the whole variable is assigned, not just an element of it.
+         */
+        public boolean isWholeVariable() {
+            return m_lhs.equals(m_target);
+        }
+
+        @Override
+        Set<String> getOwnDefs() {
+            return Collections.singleton(m_target);
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            return m_uses;
+        }
+
+        @Override
+        String describe() {
+            return m_lhs + " = " + m_rhs;
+        }
+    }
+
+    public static class Return extends Stmt {
+        private final String m_var;
+
+        public Return(String var) {
+            m_var = var;
+        }
+
+        public String getVar() {
+            return m_var;
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            return Collections.singleton(m_var);
+        }
+
+        @Override
+        String describe() {
+            return "return " + m_var;
+        }
+    }
+
+    /**
+     * A SQL statement.  It is executed and its results assigned to its INTO
+     * variables, or if it has a table variable, only to that.  Or if it has
+     * a reused table, it isn't executed, and its results are read from that
+     * table, which an earlier execution of the same query left them in.
+     */
+    public static class SqlOp extends Stmt {
+        private final AnalyzedSqlStmt m_stmt;
+        private String m_tableVar;
+        private final String m_reusedTable;
+
+        // The table variable to keep the results in for later reuse
+        private String m_keptTable = null;
+
+        // The statements executed together with this one, in order
+        private List<SqlOp> m_batch = null;
+
+        // The name of the SQLStmt, given before lowering
+        private String m_name = null;
+
+        private SqlOp(AnalyzedSqlStmt stmt, String tableVar, String reusedTable) {
+            m_stmt = stmt;
+            m_tableVar = tableVar;
+            m_reusedTable = reusedTable;
+        }
+
+        public AnalyzedSqlStmt getStmt() {
+            return m_stmt;
+        }
+
+        public boolean isExecuted() {
+            return m_reusedTable == null;
+        }
+
+        public String getTableVar() {
+            return m_tableVar;
+        }
+
+        public void setTableVar(String tableVar) {
+            m_tableVar = tableVar;
+        }
+
+        public String getReusedTable() {
+            return m_reusedTable;
+        }
+
+        public String getKeptTable() {
+            return m_keptTable;
+        }
+
+        public void setKeptTable(String keptTable) {
+            m_keptTable = keptTable;
+        }
+
+        public List<SqlOp> getBatch() {
+            return m_batch;
+        }
+
+        public void setBatch(List<SqlOp> batch) {
+            m_batch = batch;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        @Override
+        public boolean executesSql() {
+            return isExecuted();
+        }
+
+        @Override
+        Set<String> getOwnDefs() {
+            Set<String> defs = new TreeSet<>();
+            if (m_tableVar != null) {
+                defs.add(m_tableVar);
+            }
+            else {
+                defs.addAll(m_stmt.getOutputParams());
+            }
+            if (m_keptTable != null) {
+                defs.add(m_keptTable);
+            }
+            return defs;
+        }
+
+        /**
+         * The statement's SQL on one line.
+         */
+        public String getSqlText() {
+            return m_stmt.getRewrittenStmt().trim().replaceAll("\\s+", " ");
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            if (m_reusedTable != null) {
+                return Collections.singleton(m_reusedTable);
+            }
+            return m_stmt.getReferencedVariables();
+        }
+
+        @Override
+        Set<String> getOwnModifiedTables() {
+            if (isExecuted() && m_stmt.getModifiedTable() != null) {
+                return Collections.singleton(m_stmt.getModifiedTable());
+            }
+            return Collections.emptySet();
+        }
+
+        @Override
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            if (m_reusedTable != null) {
+                sb.append("reuse ").append(m_reusedTable);
+            }
+            else {
+                sb.append("sql");
+                if (m_name != null) {
+                    sb.append(" ").append(m_name);
+                }
+                if (m_tableVar != null) {
+                    sb.append(" into ").append(m_tableVar);
+                }
+                if (m_keptTable != null) {
+                    sb.append(" kept in ").append(m_keptTable);
+                }
+                if (m_batch != null && m_batch.size() > 1) {
+                    sb.append(" batch ").append(m_batch.indexOf(this) + 1).append("/").append(m_batch.size());
+                }
+            }
+            if (m_tableVar == null && ! m_stmt.getOutputParams().isEmpty()) {
+                sb.append(m_stmt.isBulkCollect() ? " bulk into " : " into ");
+                sb.append(String.join(", ", m_stmt.getOutputParams()));
+            }
+            sb.append(": ").append(getSqlText());
+            return sb.toString();
+        }
+    }
+
+    public static class If extends Stmt {
+        private final String m_cond;
+        private final Set<String> m_condUses;
+        private final List<Stmt> m_then;
+
+        public If(String cond, Set<String> condUses, List<Stmt> thenBlock) {
+            m_cond = cond;
+            m_condUses = condUses;
+            m_then = thenBlock;
+        }
+
+        public String getCond() {
+            return m_cond;
+        }
+
+        public List<Stmt> getThen() {
+            return m_then;
+        }
+
+        @Override
+        public List<List<Stmt>> getBlocks() {
+            return Collections.singletonList(m_then);
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            return m_condUses;
+        }
+
+        @Override
+        String describe() {
+            return "if (" + m_cond + ")";
+        }
+    }
+
+    /**
+     * The loop over the rows of a cursor FOR loop's query, which the
+     * statement before it executes into the row variable.
+     */
+    public static class CursorLoop extends Stmt {
+        private final String m_rowVar;
+        private final List<Stmt> m_body;
+
+        // SQL statements queued per row to be executed in batches, or 0
+        private int m_deferredSqlCount = 0;
+
+        // True if the query returns at most one row, so the body runs at most once
+        private boolean m_singleRow = false;
+
+        public CursorLoop(String rowVar, List<Stmt> body) {
+            m_rowVar = rowVar;
+            m_body = body;
+        }
+
+        public String getRowVar() {
+            return m_rowVar;
+        }
+
+        public List<Stmt> getBody() {
+            return m_body;
+        }
+
+        public int getDeferredSqlCount() {
+            return m_deferredSqlCount;
+        }
+
+        public void setDeferredSqlCount(int deferredSqlCount) {
+            m_deferredSqlCount = deferredSqlCount;
+        }
+
+        public boolean isSingleRow() {
+            return m_singleRow;
+        }
+
+        public void setSingleRow(boolean singleRow) {
+            m_singleRow = singleRow;
+        }
+
+        @Override
+        public List<List<Stmt>> getBlocks() {
+            return Collections.singletonList(m_body);
+        }
+
+        // Advancing the row changes the row variable
+        @Override
+        Set<String> getOwnDefs() {
+            return Collections.singleton(m_rowVar);
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            return Collections.singleton(m_rowVar);
+        }
+
+        @Override
+        String describe() {
+            String desc = (m_singleRow ? "for the only row of " : "for each row of ") + m_rowVar;
+            if (m_deferredSqlCount > 0) {
+                desc += " queuing " + m_deferredSqlCount + " per row";
+            }
+            return desc;
+        }
+    }
+
+    /**
+     * A FORALL, which queues its DML for each index and executes it in batches.
+     */
+    public static class Forall extends Stmt {
+        private final String m_control;
+        private final Set<String> m_controlUses;
+        private final List<Stmt> m_body;
+
+        /**
+         * The control is that of the Java for loop over the indices.
+         */
+        public Forall(String control, Set<String> controlUses, List<Stmt> body) {
+            m_control = control;
+            m_controlUses = controlUses;
+            m_body = body;
+        }
+
+        public String getControl() {
+            return m_control;
+        }
+
+        public List<Stmt> getBody() {
+            return m_body;
+        }
+
+        @Override
+        public List<List<Stmt>> getBlocks() {
+            return Collections.singletonList(m_body);
+        }
+
+        @Override
+        Set<String> getOwnUses() {
+            return m_controlUses;
+        }
+
+        @Override
+        String describe() {
+            return "forall (" + m_control + ")";
+        }
+    }
+
+    private final String m_name;
+    private final List<Var> m_parameters = new ArrayList<>();
+    private Var m_output = null;
+    private final List<Declare> m_constants = new ArrayList<>();
+    private final List<Declare> m_locals = new ArrayList<>();
+    private final Map<String, Var> m_variables = new LinkedHashMap<>();
+    private final List<Stmt> m_body = new ArrayList<>();
+
+    // Every SQL statement executed from the source, in the order they were translated
+    private final List<SqlOp> m_sqlOps = new ArrayList<>();
+    private final List<String> m_cachedTables = new ArrayList<>();
+    private final List<String> m_diagnostics = new ArrayList<>();
+    private final Set<String> m_imports = new TreeSet<>();
+
+    public ProcedureIr(String name) {
+        m_name = name;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public void addParameter(Var var) {
+        m_parameters.add(var);
+        m_variables.put(var.getName(), var);
+    }
+
+    public void setOutput(Var var) {
+        m_output = var;
+        m_variables.put(var.getName(), var);
+    }
+
+    public void addConstant(Var var, String init) {
+        m_constants.add(new Declare(var.getJavaType(), var.getName(), init));
+        m_variables.put(var.getName(), var);
+    }
+
+    public void addLocal(Var var, String init) {
+        m_locals.add(new Declare(var.getJavaType(), var.getName(), init));
+        m_variables.put(var.getName(), var);
+    }
+
+    public List<Var> getParameters() {
+        return m_parameters;
+    }
+
+    public Var getOutput() {
+        return m_output;
+    }
+
+    public List<Declare> getConstants() {
+        return m_constants;
+    }
+
+    public List<Declare> getLocals() {
+        return m_locals;
+    }
+
+    /**
+     * The parameters, constants and local variables, by name.
+     */
+    public Map<String, Var> getVariables() {
+        return m_variables;
+    }
+
+    public List<Stmt> getBody() {
+        return m_body;
+    }
+
+    /**
+     * A new statement that executes the given SQL.
+     */
+    public SqlOp newSqlOp(AnalyzedSqlStmt stmt, String tableVar) {
+        SqlOp op = new SqlOp(stmt, tableVar, null);
+        m_sqlOps.add(op);
+        return op;
+    }
+
+    /**
+     * A new statement that reads the results of the given query from a table.
+     */
+    public SqlOp newReuse(AnalyzedSqlStmt stmt, String table) {
+        return new SqlOp(stmt, null, table);
+    }
+
+    /**
+     * A new VoltTable variable, declared with the procedure's locals, to hold results.
+     */
+    public String newCachedTable() {
+        String table = "cached" + m_cachedTables.size();
+        m_cachedTables.add(table);
+        return table;
+    }
+
+    public boolean isCachedTable(String name) {
+        return m_cachedTables.contains(name);
+    }
+
+    public List<String> getCachedTables() {
+        return m_cachedTables;
+    }
+
+    /**
+     * Report something a pass did that the author of the source should know about.
+     */
+    public void addDiagnostic(String message) {
+        m_diagnostics.add(message);
+    }
+
+    public List<String> getDiagnostics() {
+        return m_diagnostics;
+    }
+
+    public void addImport(String pkg) {
+        m_imports.add(pkg);
+    }
+
+    /**
+     * The packages the generated class must import, including those of
+     * the types of its variables.
+     */
+    public Set<String> getImports() {
+        for (Var var : m_variables.values()) {
+            m_imports.addAll(TypeTranslator.getImports(var.getJavaType()));
+        }
+        return m_imports;
+    }
+
+    /**
+     * Name the SQL statements still executed, in the order they were
+     * translated, and return them by name.
+     */
+    public Map<String, AnalyzedSqlStmt> nameStatements() {
+        Set<SqlOp> live = Collections.newSetFromMap(new IdentityHashMap<SqlOp, Boolean>());
+        collectExecuted(m_body, live);
+
+        Map<String, Integer> prefixCounts = new LinkedHashMap<>();
+        Map<String, AnalyzedSqlStmt> statements = new LinkedHashMap<>();
+        for (SqlOp op : m_sqlOps) {
+            if (! live.contains(op)) {
+                continue;
+            }
+
+            String prefix = op.getStmt().getNamePrefix();
+            Integer count = prefixCounts.get(prefix);
+            int index = count != null ? count : 0;
+            prefixCounts.put(prefix, index + 1);
+            op.m_name = prefix + index;
+            statements.put(op.m_name, op.getStmt());
+        }
+        return statements;
+    }
+
+    private static void collectExecuted(List<Stmt> block, Set<SqlOp> executed) {
+        for (Stmt stmt : block) {
+            if (stmt instanceof SqlOp && ((SqlOp) stmt).isExecuted()) {
+                executed.add((SqlOp) stmt);
+            }
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                collectExecuted(nested, executed);
+            }
+        }
+    }
+
+    /**
+     * Print the procedure, one statement per line with what it assigns and reads.
+     */
+    public void dump(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("procedure ").append(m_name).append("(");
+        List<String> params = new ArrayList<>();
+        for (Var param : m_parameters) {
+            params.add(param.getJavaType() + " " + param.getName());
+        }
+        sb.append(String.join(", ", params)).append(")");
+        if (m_output != null) {
+            sb.append(" returns ").append(m_output.getJavaType()).append(" ").append(m_output.getName());
+        }
+        sb.append("\n");
+        for (Declare constant : m_constants) {
+            sb.append("  constant ").append(constant.describe().substring("declare ".length())).append("\n");
+        }
+        for (Declare local : m_locals) {
+            sb.append("  local ").append(local.describe().substring("declare ".length())).append("\n");
+        }
+        for (String table : m_cachedTables) {
+            sb.append("  local VoltTable ").append(table).append("\n");
+        }
+        dumpBlock(sb, m_body, 1);
+        out.print(sb);
+    }
+
+    private static void dumpBlock(StringBuilder sb, List<Stmt> block, int depth) {
+        for (Stmt stmt : block) {
+            for (int i = 0; i < depth; ++i) {
+                sb.append("  ");
+            }
+            sb.append(stmt.describe());
+            Set<String> defs = stmt.getDefs();
+            Set<String> uses = stmt.getUses();
+            if (! defs.isEmpty()) {
+                sb.append("  defs ").append(defs);
+            }
+            if (! uses.isEmpty()) {
+                sb.append("  uses ").append(uses);
+            }
+            sb.append("\n");
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                dumpBlock(sb, nested, depth + 1);
+            }
+        }
+    }
+}
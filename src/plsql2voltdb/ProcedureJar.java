@@ -0,0 +1,176 @@
+package plsql2voltdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the generated procedures in memory and packages their classes
+ * as a jar that can be loaded into VoltDB with LOAD CLASSES, without
+ * writing class files or starting javac and jar.
+ */
+public class ProcedureJar {
+
+    // A generated source, compiled from memory
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String m_source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            m_source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return m_source;
+        }
+    }
+
+    // A compiled class, kept in memory
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return m_bytes;
+        }
+    }
+
+    // The Java version VoltDB runs procedures on
+    public static final String DEFAULT_RELEASE = "8";
+
+    private final String m_classpath;
+    private final String m_release;
+    private final Map<String, String> m_sources = new TreeMap<>();
+
+    /**
+     * Compile against the given classpath, which must include the VoltDB
+     * jar, or if that is null, against the translator's own classpath.
+     * The classes are for the given Java release, whichever JDK compiles them.
+     */
+    ProcedureJar(String classpath, String release) {
+        m_classpath = classpath != null ? classpath : System.getProperty("java.class.path");
+        m_release = release;
+    }
+
+    public synchronized void add(String className, String source) {
+        m_sources.put(className, source);
+    }
+
+    /**
+     * Add a source file written by an earlier run.
+     */
+    public void add(String className, Path javaSrc) throws IOException {
+        add(className, new String(Files.readAllBytes(javaSrc), StandardCharsets.UTF_8));
+    }
+
+    public synchronized int size() {
+        return m_sources.size();
+    }
+
+    /**
+     * Compile all the sources and write their classes to a jar, printing any
+     * compiler errors.  Returns 0 on success or 1 if the sources didn't compile.
+     */
+    public synchronized int save(String path, PrintStream err) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            err.println("No Java compiler is available; the translator must be run with a JDK to write a jar.");
+            return 1;
+        }
+
+        List<JavaFileObject> sourceFiles = new ArrayList<>();
+        for (Map.Entry<String, String> entry : m_sources.entrySet()) {
+            sourceFiles.add(new SourceFile(entry.getKey(), entry.getValue()));
+        }
+
+        Map<String, ClassFile> classFiles = new TreeMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                ClassFile classFile = new ClassFile(className);
+                classFiles.put(className, classFile);
+                return classFile;
+            }
+        };
+
+        List<String> options = new ArrayList<>(Arrays.asList("-classpath", m_classpath));
+        if (compiler.isSupportedOption("--release") >= 0) {
+            // Also checks that only the release's own APIs are used
+            options.addAll(Arrays.asList("--release", m_release));
+        }
+        else {
+            options.addAll(Arrays.asList("-source", m_release, "-target", m_release));
+        }
+
+        boolean compiled;
+        try {
+            compiled = compiler.getTask(null, fileManager, diagnostics, options, null, sourceFiles).call();
+        }
+        catch (IllegalArgumentException exc) {
+            err.println("Could not compile for Java release " + m_release + ": " + exc.getMessage());
+            return 1;
+        }
+        finally {
+            fileManager.close();
+        }
+
+        if (! compiled) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    String source = diagnostic.getSource() != null ? diagnostic.getSource().getName() : "";
+                    err.println(source + ":" + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null));
+                }
+            }
+            return 1;
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        Path jarPath = Paths.get(path);
+        if (jarPath.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(jarPath.toAbsolutePath().getParent());
+        }
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(jarPath), manifest)) {
+            for (Map.Entry<String, ClassFile> entry : classFiles.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                entry.getValue().m_bytes.writeTo(jar);
+                jar.closeEntry();
+            }
+        }
+        return 0;
+    }
+}
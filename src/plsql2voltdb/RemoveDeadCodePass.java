@@ -0,0 +1,175 @@
+package plsql2voltdb;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import plsql2voltdb.ProcedureIr.Assign;
+import plsql2voltdb.ProcedureIr.Comment;
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Declare;
+import plsql2voltdb.ProcedureIr.Forall;
+import plsql2voltdb.ProcedureIr.If;
+import plsql2voltdb.ProcedureIr.Return;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+import plsql2voltdb.SqlAnalyzer.AnalyzedSqlStmt;
+import plsql2voltdb.SqlAnalyzer.RowCount;
+
+/**
+ * Removes queries and assignments whose results are never read: a SELECT
+ * INTO variables that are assigned again before they are read, or never
+ * read at all, and an assignment that is overwritten before it is used.
+ * Each removal is reported as a diagnostic.  DML is always kept, and so is
+ * a SELECT INTO that may not find exactly one row, since it raises
+ * NO_DATA_FOUND or TOO_MANY_ROWS whether or not its results are read.
+ *
+ * Which variables are live is found by walking each block backwards from
+ * its end, where only the output is live at the end of the procedure.  The
+ * body of a loop is walked until what's live at its start stops changing,
+ * since that's also live at its end for the next iteration.
+ */
+public class RemoveDeadCodePass implements OptimizerPass {
+
+    @Override
+    public String getName() {
+        return "remove-dead-code";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        Set<String> live = new TreeSet<>();
+        live.add(ir.getOutput().getName());
+        Set<Stmt> dead = Collections.newSetFromMap(new IdentityHashMap<Stmt, Boolean>());
+        findDead(ir.getBody(), live, dead);
+        removeDead(ir, ir.getBody(), dead);
+    }
+
+    /**
+     * Add the statements of a block that are dead, given the variables live
+     * after it, to the dead set, and return the variables live before it.
+     */
+    private Set<String> findDead(List<Stmt> block, Set<String> liveOut, Set<Stmt> dead) {
+        Set<String> live = new TreeSet<>(liveOut);
+        Set<String> deadRowVars = new TreeSet<>();
+        for (int i = block.size() - 1; i >= 0; --i) {
+            Stmt stmt = block.get(i);
+            if (stmt instanceof Return) {
+                // Nothing after a return is reached
+                live.clear();
+                live.addAll(stmt.getUses());
+            }
+            else if (stmt instanceof Assign) {
+                Assign assign = (Assign) stmt;
+                if (! live.contains(assign.getTarget())) {
+                    dead.add(stmt);
+                    continue;
+                }
+
+                if (assign.isWholeVariable()) {
+                    live.remove(assign.getTarget());
+                }
+                live.addAll(assign.getUses());
+            }
+            else if (stmt instanceof SqlOp) {
+                SqlOp op = (SqlOp) stmt;
+                Set<String> defs = op.getDefs();
+                if ((! op.isExecuted() || (op.getStmt().isReadOnly() && ! mayRaise(op.getStmt())))
+                        && Collections.disjoint(defs, live)) {
+                    dead.add(stmt);
+                    continue;
+                }
+
+                live.removeAll(defs);
+                live.addAll(op.getUses());
+            }
+            else if (stmt instanceof If) {
+                If ifStmt = (If) stmt;
+                Set<String> thenLive = findDead(ifStmt.getThen(), live, dead);
+                if (isDead(ifStmt.getThen(), dead)) {
+                    dead.add(stmt);
+                    continue;
+                }
+
+                live.addAll(thenLive);
+                live.addAll(ifStmt.getOwnUses());
+            }
+            else if (stmt instanceof CursorLoop || stmt instanceof Forall) {
+                List<Stmt> body = stmt.getBlocks().get(0);
+                Set<String> liveBefore = findDeadInLoop(body, live, dead);
+                if (stmt instanceof CursorLoop && isDead(body, dead)) {
+                    dead.add(stmt);
+                    deadRowVars.add(((CursorLoop) stmt).getRowVar());
+                    continue;
+                }
+
+                live = liveBefore;
+                live.addAll(stmt.getOwnUses());
+            }
+            else if (stmt instanceof Declare) {
+                // The row variable of a loop that is removed
+                if (deadRowVars.contains(((Declare) stmt).getName())) {
+                    dead.add(stmt);
+                }
+            }
+        }
+        return live;
+    }
+
+    private Set<String> findDeadInLoop(List<Stmt> body, Set<String> liveOut, Set<Stmt> dead) {
+        Set<String> liveAtEnd = new TreeSet<>(liveOut);
+        while (true) {
+            Set<Stmt> iterationDead = Collections.newSetFromMap(new IdentityHashMap<Stmt, Boolean>());
+            Set<String> liveAtStart = findDead(body, liveAtEnd, iterationDead);
+            if (liveAtEnd.containsAll(liveAtStart)) {
+                break;
+            }
+            liveAtEnd.addAll(liveAtStart);
+        }
+
+        // The body may not run at all
+        Set<String> liveBefore = findDead(body, liveAtEnd, dead);
+        liveBefore.addAll(liveOut);
+        return liveBefore;
+    }
+
+    private void removeDead(ProcedureIr ir, List<Stmt> block, Set<Stmt> dead) {
+        for (Iterator<Stmt> iter = block.iterator(); iter.hasNext(); ) {
+            Stmt stmt = iter.next();
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                removeDead(ir, nested, dead);
+            }
+
+            if (! dead.contains(stmt)) {
+                continue;
+            }
+
+            if (stmt instanceof Assign) {
+                ir.addDiagnostic("removed assignment to " + ((Assign) stmt).getTarget() + ", which is never read");
+            }
+            else if (stmt instanceof SqlOp && ((SqlOp) stmt).isExecuted()) {
+                ir.addDiagnostic("removed query whose results are never read: " + ((SqlOp) stmt).getSqlText());
+            }
+            iter.remove();
+        }
+    }
+
+    // True if a SELECT INTO can raise an error for finding no rows or too many
+    private static boolean mayRaise(AnalyzedSqlStmt stmt) {
+        return ! stmt.getOutputParams().isEmpty() && ! stmt.isBulkCollect()
+                && stmt.getRowCount() != RowCount.EXACTLY_ONE;
+    }
+
+    // True if a block has nothing but comments and dead statements
+    private static boolean isDead(List<Stmt> block, Set<Stmt> dead) {
+        for (Stmt stmt : block) {
+            if (! (stmt instanceof Comment) && ! dead.contains(stmt)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
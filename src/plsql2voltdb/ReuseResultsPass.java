@@ -0,0 +1,107 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.Forall;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+
+/**
+ * Reads the results of a query again instead of executing it again, when
+ * the same query with the same parameters ran earlier in the same
+ * iteration of the innermost enclosing loop, and since then nothing has
+ * assigned the variables its parameters come from or written to the
+ * tables it reads, directly or through a materialized view.  The earlier
+ * execution keeps its results in a VoltTable variable.
+ */
+public class ReuseResultsPass implements OptimizerPass {
+
+    @Override
+    public String getName() {
+        return "reuse-results";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        reuseIn(ir, ir.getBody(), new ArrayList<>());
+    }
+
+    /**
+     * Rewrite the queries of a block, given the queries whose results are
+     * available on entry, which the list is updated to those on exit.
+     */
+    private void reuseIn(ProcedureIr ir, List<Stmt> block, List<SqlOp> available) {
+        for (int i = 0; i < block.size(); ++i) {
+            Stmt stmt = block.get(i);
+            if (stmt instanceof SqlOp) {
+                SqlOp op = (SqlOp) stmt;
+                SqlOp earlier = findSameQuery(available, op);
+                if (earlier != null && op.isExecuted() && op.getTableVar() == null) {
+                    stmt = ir.newReuse(op.getStmt(), getResultTable(ir, earlier));
+                    block.set(i, stmt);
+                }
+            }
+
+            // Only the results of the same iteration of a loop can be reused
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                boolean isLoop = stmt instanceof CursorLoop || stmt instanceof Forall;
+                reuseIn(ir, nested, isLoop ? new ArrayList<>() : new ArrayList<>(available));
+            }
+
+            Set<String> defs = stmt.getDefs();
+            Set<String> modifiedTables = stmt.getModifiedTables();
+            for (Iterator<SqlOp> iter = available.iterator(); iter.hasNext(); ) {
+                SqlOp op = iter.next();
+                if (! Collections.disjoint(op.getStmt().getReferencedVariables(), defs)
+                        || ! Collections.disjoint(op.getStmt().getUnderlyingTables(), modifiedTables)) {
+                    iter.remove();
+                }
+            }
+
+            // A query whose INTO variables are among its parameters can't be reused
+            if (stmt instanceof SqlOp && isReusable(ir, (SqlOp) stmt)
+                    && Collections.disjoint(((SqlOp) stmt).getStmt().getReferencedVariables(), defs)) {
+                available.add((SqlOp) stmt);
+            }
+        }
+    }
+
+    private static boolean isReusable(ProcedureIr ir, SqlOp op) {
+        if (! op.getStmt().isReadOnly()) {
+            return false;
+        }
+
+        // The row variable of a cursor loop is used up by the loop
+        return op.getTableVar() == null || ir.isCachedTable(op.getTableVar());
+    }
+
+    private static SqlOp findSameQuery(List<SqlOp> available, SqlOp op) {
+        for (SqlOp candidate : available) {
+            if (candidate.getStmt().isSameQuery(op.getStmt())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // The variable that holds or will keep the results of a query
+    private static String getResultTable(ProcedureIr ir, SqlOp op) {
+        if (op.getReusedTable() != null) {
+            return op.getReusedTable();
+        }
+
+        if (op.getTableVar() != null) {
+            return op.getTableVar();
+        }
+
+        if (op.getKeptTable() == null) {
+            op.setKeptTable(ir.newCachedTable());
+        }
+        return op.getKeptTable();
+    }
+}
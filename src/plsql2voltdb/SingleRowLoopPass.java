@@ -0,0 +1,69 @@
+package plsql2voltdb;
+
+import java.util.List;
+
+import plsql2voltdb.ProcedureIr.Assign;
+import plsql2voltdb.ProcedureIr.Comment;
+import plsql2voltdb.ProcedureIr.CursorLoop;
+import plsql2voltdb.ProcedureIr.SqlOp;
+import plsql2voltdb.ProcedureIr.Stmt;
+import plsql2voltdb.SqlAnalyzer.RowCount;
+
+/**
+ * Fetches the row of a cursor loop directly instead of looping over the
+ * result, when the plan shows that the loop's query returns at most one
+ * row, such as a unique-key lookup, and the body only assigns scalar
+ * variables.  Such a loop is how
+ * PL/SQL often looks up a single row by its key, with the last row, which
+ * is the only one, winning.
+ */
+public class SingleRowLoopPass implements OptimizerPass {
+
+    @Override
+    public String getName() {
+        return "fetch-single-row";
+    }
+
+    @Override
+    public void run(ProcedureIr ir) {
+        fetchIn(ir, ir.getBody());
+    }
+
+    private void fetchIn(ProcedureIr ir, List<Stmt> block) {
+        for (int i = 0; i < block.size(); ++i) {
+            Stmt stmt = block.get(i);
+            for (List<Stmt> nested : stmt.getBlocks()) {
+                fetchIn(ir, nested);
+            }
+
+            if (! (stmt instanceof CursorLoop) || i == 0 || ! (block.get(i - 1) instanceof SqlOp)) {
+                continue;
+            }
+
+            CursorLoop loop = (CursorLoop) stmt;
+            SqlOp query = (SqlOp) block.get(i - 1);
+            if (loop.getRowVar().equals(query.getTableVar()) && query.getStmt().getRowCount() != RowCount.MANY
+                    && onlyAssignsScalars(ir, loop.getBody())) {
+                loop.setSingleRow(true);
+            }
+        }
+    }
+
+    private static boolean onlyAssignsScalars(ProcedureIr ir, List<Stmt> body) {
+        for (Stmt stmt : body) {
+            if (stmt instanceof Comment) {
+                continue;
+            }
+
+            if (! (stmt instanceof Assign) || ! ((Assign) stmt).isWholeVariable()) {
+                return false;
+            }
+
+            Var target = ir.getVariables().get(((Assign) stmt).getTarget());
+            if (target == null || target.isCollection()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
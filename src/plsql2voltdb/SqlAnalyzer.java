@@ -1,89 +1,358 @@
 package plsql2voltdb;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.TokenStreamRewriter;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.voltdb.VoltType;
+import org.voltdb.planner.CompiledPlan;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AggregatePlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.plannodes.IndexScanPlanNode;
+import org.voltdb.plannodes.LimitPlanNode;
 import org.voltdb.plannodes.NodeSchema;
+import org.voltdb.types.IndexLookupType;
+import org.voltdb.types.PlanNodeType;
 
+import plsql_parser.PlSqlParser.ArgumentContext;
+import plsql_parser.PlSqlParser.Column_nameContext;
+import plsql_parser.PlSqlParser.Delete_statementContext;
+import plsql_parser.PlSqlParser.Dml_table_expression_clauseContext;
+import plsql_parser.PlSqlParser.ExpressionContext;
+import plsql_parser.PlSqlParser.Function_argumentContext;
 import plsql_parser.PlSqlParser.General_elementContext;
+import plsql_parser.PlSqlParser.General_element_partContext;
+import plsql_parser.PlSqlParser.General_table_refContext;
 import plsql_parser.PlSqlParser.Id_expressionContext;
+import plsql_parser.PlSqlParser.Insert_into_clauseContext;
 import plsql_parser.PlSqlParser.Into_clauseContext;
+import plsql_parser.PlSqlParser.Join_on_partContext;
+import plsql_parser.PlSqlParser.Logical_or_expressionContext;
+import plsql_parser.PlSqlParser.Negated_expressionContext;
+import plsql_parser.PlSqlParser.Query_blockContext;
+import plsql_parser.PlSqlParser.Relational_expressionContext;
+import plsql_parser.PlSqlParser.Single_table_insertContext;
+import plsql_parser.PlSqlParser.Table_aliasContext;
+import plsql_parser.PlSqlParser.Table_ref_auxContext;
 import plsql_parser.PlSqlParser.Type_nameContext;
+import plsql_parser.PlSqlParser.Update_statementContext;
 import plsql_parser.PlSqlParser.Variable_nameContext;
+import plsql_parser.PlSqlParser.Where_clauseContext;
 import plsql_parser.PlSqlParserBaseListener;
 
 public class SqlAnalyzer {
 
+    /**
+     * How many rows a query returns, as far as its plan shows.
+     */
+    public enum RowCount {
+        // An aggregate without GROUP BY or HAVING
+        EXACTLY_ONE,
+        // A lookup on a unique key, or LIMIT 1
+        AT_MOST_ONE,
+        MANY
+    }
+
     private final StandAlonePlanner m_planner;
 
     SqlAnalyzer(String ddlPath) throws Exception {
         m_planner = new StandAlonePlanner(ddlPath);
     }
 
+    public String getTableSignature(String tableName) {
+        return m_planner.getTableSignature(tableName);
+    }
+
+    public String getColumnSignature(String tableName, String columnName) {
+        return m_planner.getColumnSignature(tableName, columnName);
+    }
+
+    public String getPartitionColumn(String tableName) {
+        return m_planner.getPartitionColumn(tableName);
+    }
+
+    public List<List<String>> getIndexColumns(String tableName) {
+        return m_planner.getIndexColumns(tableName);
+    }
+
+    public boolean isReplicated(String tableName) {
+        return m_planner.isReplicated(tableName);
+    }
+
+    public String getViewSource(String tableName) {
+        return m_planner.getViewSource(tableName);
+    }
+
+    public long getPlanCacheHits() {
+        return m_planner.getPlanCacheHits();
+    }
+
+    public long getPlanCacheMisses() {
+        return m_planner.getPlanCacheMisses();
+    }
+
+    /**
+     * A comparison of a column with a PL/SQL variable or a literal that
+     * must hold for every row a statement touches, such as a conjunct of the
+     * WHERE clause.  For an INSERT, each inserted value is recorded as an
+     * equality predicate on its column.
+     */
+    public static class ColumnPredicate {
+        private final String m_table;
+        private final String m_scan;
+        private final String m_column;
+        private final String m_operator;
+        private final String m_variable;
+        private final String m_constant;
+
+        ColumnPredicate(String table, String scan, String column, String operator, String variable, String constant) {
+            m_table = table;
+            m_scan = scan;
+            m_column = column;
+            m_operator = operator;
+            m_variable = variable;
+            m_constant = constant;
+        }
+
+        /**
+         * Upper-case name of the table or view the column belongs to.
+         */
+        public String getTable() {
+            return m_table;
+        }
+
+        /**
+         * Which of the statement's scans the column belongs to, as a key of
+         * {@link AnalyzedSqlStmt#getTableScans()}.
+         */
+        public String getScan() {
+            return m_scan;
+        }
+
+        /**
+         * Upper-case name of the column.
+         */
+        public String getColumn() {
+            return m_column;
+        }
+
+        /**
+         * One of =, <, >, <= and >=, with the column on the left.
+         */
+        public String getOperator() {
+            return m_operator;
+        }
+
+        /**
+         * The PL/SQL variable the column is compared with, or null.
+         */
+        public String getVariable() {
+            return m_variable;
+        }
+
+        /**
+         * The literal the column is compared with, or null.
+         */
+        public String getConstant() {
+            return m_constant;
+        }
+
+        public boolean isEquality() {
+            return "=".equals(m_operator);
+        }
+
+        @Override
+        public String toString() {
+            return m_table + "." + m_column + " " + m_operator + " "
+                    + (m_variable != null ? m_variable : m_constant);
+        }
+    }
+
     public static class AnalyzedSqlStmt {
         private final String m_rewrittenStmt;
         private final List<String> m_inputParams;
+        private final Set<String> m_referencedVariables;
         private final List<String> m_outputParams;
-        private final NodeSchema m_outputSchema;
+        private final boolean m_bulkCollect;
+        private final CompiledPlan m_plan;
+        private final RowCount m_rowCount;
         private final String m_prefix;
+        private final Set<String> m_referencedTables;
+        private final Set<String> m_underlyingTables;
+        private final Map<String, String> m_tableScans;
+        private final String m_modifiedTable;
+        private final List<ColumnPredicate> m_predicates;
 
         AnalyzedSqlStmt(
                 String rewrittenStmt,
                 List<String> inputParams,
+                Set<String> referencedVariables,
                 List<String> outputParams,
-                NodeSchema outputSchema,
-                String prefix) {
+                boolean bulkCollect,
+                CompiledPlan plan,
+                RowCount rowCount,
+                String prefix,
+                Set<String> referencedTables,
+                Set<String> underlyingTables,
+                Map<String, String> tableScans,
+                String modifiedTable,
+                List<ColumnPredicate> predicates) {
             m_rewrittenStmt = rewrittenStmt;
             m_inputParams = inputParams;
+            m_referencedVariables = referencedVariables;
             m_outputParams = outputParams;
-            m_outputSchema = outputSchema;
+            m_bulkCollect = bulkCollect;
+            m_plan = plan;
+            m_rowCount = rowCount;
             m_prefix = prefix;
+            m_referencedTables = referencedTables;
+            m_underlyingTables = underlyingTables;
+            m_tableScans = tableScans;
+            m_modifiedTable = modifiedTable;
+            m_predicates = predicates;
         }
 
         public String getRewrittenStmt() {
             return m_rewrittenStmt;
         }
 
+        /**
+         * The Java expressions passed for the statement's parameters, in order.
+         */
         public List<String> getInputParams() {
             return m_inputParams;
         }
 
+        /**
+         * The PL/SQL variables the parameters are computed from.
+         */
+        public Set<String> getReferencedVariables() {
+            return m_referencedVariables;
+        }
+
         public List<String> getOutputParams() {
             return m_outputParams;
         }
 
+        /**
+         * True for a query that fetches all its rows into collections.
+         */
+        public boolean isBulkCollect() {
+            return m_bulkCollect;
+        }
+
         public NodeSchema getOutputSchema() {
-            return m_outputSchema;
+            return m_plan.rootPlanGraph.getOutputSchema();
         }
 
-        public boolean producesSingleIntegerColumn() {
+        public CompiledPlan getPlan() {
+            return m_plan;
+        }
 
-            if (m_outputSchema.size() != 1) {
+        public RowCount getRowCount() {
+            return m_rowCount;
+        }
+
+        public boolean producesSingleIntegerColumn() {
+            NodeSchema outputSchema = getOutputSchema();
+            if (outputSchema.size() != 1) {
                 return false;
             }
 
-            String outputJavaType = TypeTranslator.translate(m_outputSchema.getColumns().get(0).getType());
-            return "long".equals(outputJavaType);
+            // Timestamps are longs too, but asScalarLong can't read them
+            String accessor = TypeTranslator.getVoltTableAccessor(outputSchema.getColumns().get(0).getType());
+            return "getLong".equals(accessor);
         }
 
         public String getNamePrefix() {
             return m_prefix;
         }
+
+        /**
+         * True for queries, which can be executed earlier than written as long
+         * as their inputs and the data they read are unchanged.
+         */
+        public boolean isReadOnly() {
+            return "select".equals(m_prefix);
+        }
+
+        /**
+         * Upper-case names of the tables and views the statement reads or writes.
+         */
+        public Set<String> getReferencedTables() {
+            return m_referencedTables;
+        }
+
+        /**
+         * The referenced tables and views, and the tables those views are
+         * materialized from, since writing to a table changes its views.
+         */
+        public Set<String> getUnderlyingTables() {
+            return m_underlyingTables;
+        }
+
+        /**
+         * The table or view of each place the statement names one, such as
+         * both sides of a self-join or a subquery over a table the outer
+         * query also reads.  Each is keyed by its upper-case alias, or its
+         * table name if it has none, and a name that is used again gets a
+         * "#n" suffix since no column can be tied to it.
+         */
+        public Map<String, String> getTableScans() {
+            return m_tableScans;
+        }
+
+        /**
+         * Upper-case name of the table an INSERT, UPDATE or DELETE writes to,
+         * or null for a query.
+         */
+        public String getModifiedTable() {
+            return m_modifiedTable;
+        }
+
+        public List<ColumnPredicate> getPredicates() {
+            return m_predicates;
+        }
+
+        /**
+         * True if both statements are the same query with the same parameters,
+         * so they get the same results from the same data.
+         */
+        public boolean isSameQuery(AnalyzedSqlStmt other) {
+            return isReadOnly() && other.isReadOnly()
+                    && m_rewrittenStmt.replaceAll("\\s+", " ").equals(other.m_rewrittenStmt.replaceAll("\\s+", " "))
+                    && m_inputParams.equals(other.m_inputParams);
+        }
     }
 
     private static class SqlAnalyzingListener extends PlSqlParserBaseListener {
+        private final StandAlonePlanner m_planner;
         private final TokenStreamRewriter m_rewriter;
         private final List<String> m_outputVariables = new ArrayList<>();
         private final List<String> m_inputVariables = new ArrayList<>();
+        private final Set<String> m_referencedVariables = new TreeSet<>();
+        private boolean m_bulkCollect = false;
+        private final Set<String> m_tables = new TreeSet<>();
+        private final Map<String, String> m_scans = new LinkedHashMap<>();
+        private final Map<String, ParserRuleContext> m_scanBlocks = new HashMap<>();
+        private final Set<String> m_reusedScanNames = new TreeSet<>();
+        private final List<ColumnPredicate> m_predicates = new ArrayList<>();
+        private String m_modifiedTable = null;
         private final Map<String, Var> m_visibleVariables;
 
-        SqlAnalyzingListener(TokenStreamRewriter tokenStreamRewriter, Map<String, Var> visibleVariables) {
+        SqlAnalyzingListener(StandAlonePlanner planner, TokenStreamRewriter tokenStreamRewriter,
+                Map<String, Var> visibleVariables) {
+            m_planner = planner;
             m_rewriter = tokenStreamRewriter;
             m_visibleVariables = visibleVariables;
         }
@@ -93,6 +362,7 @@ public class SqlAnalyzer {
         public void exitInto_clause(Into_clauseContext ctx) {
             m_rewriter.delete(ctx.getStart(), ctx.getStop());
             assert(m_outputVariables.isEmpty());
+            m_bulkCollect = ctx.BULK() != null;
             for (Variable_nameContext name : ctx.variable_name()) {
                 m_outputVariables.add(name.getText());
             }
@@ -101,15 +371,277 @@ public class SqlAnalyzer {
         // Any references to local variables should get converted to "?"
         @Override
         public void exitGeneral_element(General_elementContext ctx) {
-            if (ctx.general_element_part().size() == 1) {
-                String id = ctx.getText();
-                if (m_visibleVariables.containsKey(id)) {
+            if (ctx.general_element_part().size() != 1 || isInCollectionIndex(ctx)) {
+                return;
+            }
+
+            String id = ctx.getText();
+            String literal = getConstantLiteral(id);
+            if (literal != null) {
+                // The planner sees the value, and it isn't passed with each call
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), literal);
+                return;
+            }
+
+            if (m_visibleVariables.containsKey(id)) {
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), "?");
+                m_inputVariables.add(id);
+                m_referencedVariables.add(id);
+                return;
+            }
+
+            // A field of a cursor loop's row is read from its VoltTable
+            General_element_partContext part = ctx.general_element_part(0);
+            Var row = m_visibleVariables.get(part.id_expression(0).getText());
+            if (row != null && row.getSchema() != null
+                    && part.id_expression().size() == 2 && part.function_argument() == null) {
+                String accessor = ExpressionFormatter.getVoltTableAccessor(row.getSchema(), part.id_expression(1).getText());
+                if (accessor != null) {
                     m_rewriter.replace(ctx.getStart(), ctx.getStop(), "?");
-                    m_inputVariables.add(id);
+                    m_inputVariables.add(row.getName() + "." + accessor);
+                    m_referencedVariables.add(row.getName());
                 }
+                return;
+            }
+
+            // An element or attribute of a collection is passed as its Java equivalent
+            Var collection = row;
+            if (collection == null || ! collection.isCollection()) {
+                return;
+            }
+
+            String param = null;
+            if (isCollectionElement(part)) {
+                ArgumentContext index = part.function_argument().argument(0);
+                param = ExpressionFormatter.formatElement(collection.getName(),
+                        m_rewriter.getTokenStream().getText(index.getSourceInterval()));
+                for (int i = index.getStart().getTokenIndex(); i <= index.getStop().getTokenIndex(); ++i) {
+                    String text = m_rewriter.getTokenStream().get(i).getText();
+                    if (m_visibleVariables.containsKey(text)) {
+                        m_referencedVariables.add(text);
+                    }
+                }
+            }
+            else if (part.id_expression().size() == 2 && part.function_argument() == null) {
+                param = ExpressionFormatter.formatAttribute(collection.getName(), part.id_expression(1).getText());
+            }
+
+            if (param != null) {
+                m_rewriter.replace(ctx.getStart(), ctx.getStop(), "?");
+                m_inputVariables.add(param);
+                m_referencedVariables.add(collection.getName());
             }
         }
 
+        // "coll(index)" where coll is a collection
+        private boolean isCollectionElement(General_element_partContext part) {
+            if (part.id_expression().size() != 1 || part.function_argument() == null
+                    || part.function_argument().argument().size() != 1) {
+                return false;
+            }
+
+            Var var = m_visibleVariables.get(part.id_expression(0).getText());
+            return var != null && var.isCollection();
+        }
+
+        // Variables in the index of a collection element are part of the element's parameter
+        private boolean isInCollectionIndex(ParserRuleContext ctx) {
+            for (ParserRuleContext node = ctx.getParent(); node != null; node = node.getParent()) {
+                if (node instanceof Function_argumentContext
+                        && node.getParent() instanceof General_element_partContext
+                        && isCollectionElement((General_element_partContext) node.getParent())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void exitDml_table_expression_clause(Dml_table_expression_clauseContext ctx) {
+            String table = getTableName(ctx);
+            if (table == null) {
+                return;
+            }
+
+            m_tables.add(table);
+            Table_aliasContext alias = getTableAlias(ctx);
+            String scan = alias != null ? alias.getText().toUpperCase() : table;
+            if (m_scans.containsKey(scan)) {
+                m_reusedScanNames.add(scan);
+                scan = scan + "#" + (m_scans.size() + 1);
+            }
+            m_scans.put(scan, table);
+            m_scanBlocks.put(scan, getQueryBlock(ctx));
+        }
+
+        private static String getTableName(Dml_table_expression_clauseContext ctx) {
+            if (ctx == null || ctx.tableview_name() == null) {
+                return null;
+            }
+            return ctx.tableview_name().identifier().getText().toUpperCase();
+        }
+
+        // The alias of a table in a FROM clause or the target of DML, or null
+        private static Table_aliasContext getTableAlias(Dml_table_expression_clauseContext ctx) {
+            for (ParserRuleContext node = ctx.getParent(); node != null; node = node.getParent()) {
+                if (node instanceof Table_ref_auxContext) {
+                    return ((Table_ref_auxContext) node).table_alias();
+                }
+                if (node instanceof General_table_refContext) {
+                    return ((General_table_refContext) node).table_alias();
+                }
+            }
+            return null;
+        }
+
+        // The SELECT a table or condition is part of, or null for one of an UPDATE or DELETE
+        private static ParserRuleContext getQueryBlock(ParserRuleContext ctx) {
+            for (ParserRuleContext node = ctx.getParent(); node != null; node = node.getParent()) {
+                if (node instanceof Query_blockContext) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void exitInsert_into_clause(Insert_into_clauseContext ctx) {
+            m_modifiedTable = getTableName(ctx.general_table_ref().dml_table_expression_clause());
+        }
+
+        @Override
+        public void exitUpdate_statement(Update_statementContext ctx) {
+            m_modifiedTable = getTableName(ctx.general_table_ref().dml_table_expression_clause());
+        }
+
+        @Override
+        public void exitDelete_statement(Delete_statementContext ctx) {
+            m_modifiedTable = getTableName(ctx.general_table_ref().dml_table_expression_clause());
+        }
+
+        // Each value of "INSERT INTO t [(c1, c2, ...)] VALUES (v1, v2, ...)" fixes its column
+        @Override
+        public void exitSingle_table_insert(Single_table_insertContext ctx) {
+            if (ctx.values_clause() == null || m_modifiedTable == null) {
+                return;
+            }
+
+            List<String> columns = new ArrayList<>();
+            List<Column_nameContext> columnNames = ctx.insert_into_clause().column_name();
+            if (columnNames.isEmpty()) {
+                columns.addAll(m_planner.getColumnNames(m_modifiedTable));
+            }
+            else {
+                for (Column_nameContext columnName : columnNames) {
+                    columns.add(columnName.getText().toUpperCase());
+                }
+            }
+
+            // The table inserted into is the first one named
+            String scan = m_scans.keySet().iterator().next();
+            List<ExpressionContext> values = ctx.values_clause().expression_list().expression();
+            for (int i = 0; i < values.size() && i < columns.size(); ++i) {
+                addPredicate(scan, columns.get(i), "=", values.get(i).getText());
+            }
+        }
+
+        @Override
+        public void exitRelational_expression(Relational_expressionContext ctx) {
+            if (ctx.relational_operator() == null || ! isConjunct(ctx)) {
+                return;
+            }
+
+            String op = ctx.relational_operator().getText();
+            String lhs = ctx.relational_expression(0).getText();
+            String rhs = ctx.relational_expression(1).getText();
+            if (! isOperand(rhs)) {
+                // Maybe the column is on the right, as in "? < col"
+                String tmp = lhs;
+                lhs = rhs;
+                rhs = tmp;
+                op = op.replace('<', '#').replace('>', '<').replace('#', '>');
+            }
+
+            if (! isOperand(rhs) || ! lhs.matches("\\w+(\\.\\w+)?") || m_visibleVariables.containsKey(lhs)) {
+                return;
+            }
+
+            String[] names = lhs.toUpperCase().split("\\.");
+            String scan = names.length == 2 ? resolveQualifier(names[0]) : resolveColumn(names[0], getQueryBlock(ctx));
+            if (scan != null) {
+                addPredicate(scan, names[names.length - 1], op, rhs);
+            }
+        }
+
+        // The SQL literal for a constant whose value is known, or null
+        private String getConstantLiteral(String id) {
+            Var var = m_visibleVariables.get(id);
+            if (var == null || var.getConstantValue() == null) {
+                return null;
+            }
+            return ConstantFolder.toSqlLiteral(var.getConstantValue());
+        }
+
+        // True for a PL/SQL variable or a literal number or string
+        private boolean isOperand(String text) {
+            return m_visibleVariables.containsKey(text)
+                    || text.matches("-?\\d+(\\.\\d*)?|'([^']|'')*'");
+        }
+
+        private void addPredicate(String scan, String column, String op, String value) {
+            if (! op.matches("=|<|>|<=|>=")) {
+                return;
+            }
+
+            String table = m_scans.get(scan);
+            if (getConstantLiteral(value) != null) {
+                m_predicates.add(new ColumnPredicate(table, scan, column, op, null, getConstantLiteral(value)));
+            }
+            else if (m_visibleVariables.containsKey(value)) {
+                m_predicates.add(new ColumnPredicate(table, scan, column, op, value, null));
+            }
+            else if (isOperand(value)) {
+                m_predicates.add(new ColumnPredicate(table, scan, column, op, null, value));
+            }
+        }
+
+        // A predicate counts only if it must hold for every row: it is
+        // ANDed into a WHERE or ON condition, not under an OR or a NOT.
+        private static boolean isConjunct(Relational_expressionContext ctx) {
+            for (ParseTree node = ctx.getParent(); node != null; node = node.getParent()) {
+                if (node instanceof Where_clauseContext || node instanceof Join_on_partContext) {
+                    return true;
+                }
+                if ((node instanceof Logical_or_expressionContext && ((Logical_or_expressionContext) node).OR() != null)
+                        || (node instanceof Negated_expressionContext && ((Negated_expressionContext) node).NOT() != null)
+                        || node instanceof Relational_expressionContext) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        // The scan a qualified column belongs to, unless its qualifier names more than one
+        private String resolveQualifier(String qualifier) {
+            return m_scans.containsKey(qualifier) && ! m_reusedScanNames.contains(qualifier) ? qualifier : null;
+        }
+
+        // The scan an unqualified column belongs to, if exactly one table of
+        // the query block it's in has it
+        private String resolveColumn(String column, ParserRuleContext block) {
+            String found = null;
+            for (Map.Entry<String, String> scan : m_scans.entrySet()) {
+                if (m_scanBlocks.get(scan.getKey()) == block
+                        && m_planner.getColumnNames(scan.getValue()).contains(column)) {
+                    if (found != null) {
+                        return null;
+                    }
+                    found = scan.getKey();
+                }
+            }
+            return found;
+        }
+
         public List<String> getOutputVariables() {
             return m_outputVariables;
         }
@@ -117,24 +649,171 @@ public class SqlAnalyzer {
         public List<String> getInputVariables() {
             return m_inputVariables;
         }
+
+        public Set<String> getReferencedVariables() {
+            return m_referencedVariables;
+        }
+
+        public boolean isBulkCollect() {
+            return m_bulkCollect;
+        }
+
+        public Set<String> getTables() {
+            return m_tables;
+        }
+
+        public Map<String, String> getScans() {
+            return m_scans;
+        }
+
+        public String getModifiedTable() {
+            return m_modifiedTable;
+        }
+
+        public List<ColumnPredicate> getPredicates() {
+            return m_predicates;
+        }
     }
 
     public AnalyzedSqlStmt analyze(TokenStream tokenStream, Map<String, Var> visibleVariables, ParserRuleContext sqlStmtCtx) {
         ParseTreeWalker walker = new ParseTreeWalker();
         TokenStreamRewriter rewriter = new TokenStreamRewriter(tokenStream);
-        SqlAnalyzingListener listener = new SqlAnalyzingListener(rewriter, visibleVariables);
+        SqlAnalyzingListener listener = new SqlAnalyzingListener(m_planner, rewriter, visibleVariables);
         walker.walk(listener, sqlStmtCtx);
 
         String rewrittenSql = rewriter.getText(sqlStmtCtx.getSourceInterval());
-        NodeSchema schema = m_planner.planAndGetOutputSchema(rewrittenSql);
+        CompiledPlan plan = m_planner.plan(rewrittenSql);
+
+        Set<String> underlyingTables = new TreeSet<>(listener.getTables());
+        for (String table : listener.getTables()) {
+            String viewSource = m_planner.getViewSource(table);
+            if (viewSource != null) {
+                underlyingTables.add(viewSource);
+            }
+        }
 
         String prefix = getPrefixForName(tokenStream, sqlStmtCtx);
         return new AnalyzedSqlStmt(
                 rewrittenSql,
                 listener.getInputVariables(),
+                listener.getReferencedVariables(),
                 listener.getOutputVariables(),
-                schema,
-                prefix);
+                listener.isBulkCollect(),
+                plan,
+                getRowCount(plan),
+                prefix,
+                listener.getTables(),
+                underlyingTables,
+                listener.getScans(),
+                listener.getModifiedTable(),
+                listener.getPredicates());
+    }
+
+    /**
+     * Whether a plan returns a single row.  From the top of the plan down to
+     * where rows are produced, an aggregate without GROUP BY or HAVING
+     * returns exactly one row, and a LIMIT of at most 1 at most one.
+     * Otherwise a query that reads a single table by every column of a
+     * unique index returns at most one row.
+     */
+    private RowCount getRowCount(CompiledPlan plan) {
+        AbstractPlanNode node = plan.rootPlanGraph;
+        while (node != null) {
+            switch (node.getPlanNodeType()) {
+            case TABLECOUNT:
+            case INDEXCOUNT:
+                return RowCount.EXACTLY_ONE;
+            default:
+                break;
+            }
+
+            AggregatePlanNode aggregate = getAggregate(node);
+            if (aggregate != null) {
+                return aggregate.getGroupByExpressionsSize() == 0 && aggregate.getPostPredicate() == null
+                        ? RowCount.EXACTLY_ONE
+                        : RowCount.MANY;
+            }
+
+            AbstractPlanNode limit = node.getPlanNodeType() == PlanNodeType.LIMIT
+                    ? node
+                    : node.getInlinePlanNode(PlanNodeType.LIMIT);
+            if (limit != null && ((LimitPlanNode) limit).getLimit() >= 0 && ((LimitPlanNode) limit).getLimit() <= 1) {
+                return RowCount.AT_MOST_ONE;
+            }
+
+            node = passesRowsThrough(node) && node.getChildCount() == 1 ? node.getChild(0) : null;
+        }
+
+        return isUniqueKeyLookup(plan) ? RowCount.AT_MOST_ONE : RowCount.MANY;
+    }
+
+    // The node if it aggregates, or an aggregate inlined in it
+    private static AggregatePlanNode getAggregate(AbstractPlanNode node) {
+        if (node instanceof AggregatePlanNode) {
+            return (AggregatePlanNode) node;
+        }
+
+        for (PlanNodeType type : new PlanNodeType[] {
+                PlanNodeType.AGGREGATE, PlanNodeType.HASHAGGREGATE, PlanNodeType.PARTIALAGGREGATE }) {
+            AbstractPlanNode inline = node.getInlinePlanNode(type);
+            if (inline != null) {
+                return (AggregatePlanNode) inline;
+            }
+        }
+        return null;
+    }
+
+    // True for nodes that return no more rows than their child
+    private static boolean passesRowsThrough(AbstractPlanNode node) {
+        switch (node.getPlanNodeType()) {
+        case SEND:
+        case RECEIVE:
+        case MERGERECEIVE:
+        case PROJECTION:
+        case ORDERBY:
+        case LIMIT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private boolean isUniqueKeyLookup(CompiledPlan plan) {
+        List<AbstractScanPlanNode> scans = new ArrayList<>();
+        if (! collectScans(plan.rootPlanGraph, scans)
+                || (plan.subPlanGraph != null && ! collectScans(plan.subPlanGraph, scans))
+                || scans.size() != 1 || ! (scans.get(0) instanceof IndexScanPlanNode)) {
+            return false;
+        }
+
+        IndexScanPlanNode scan = (IndexScanPlanNode) scans.get(0);
+        int keyColumns = m_planner.getUniqueKeyColumnCount(scan.getTargetTableName(), scan.getTargetIndexName());
+        return keyColumns > 0
+                && scan.getLookupType() == IndexLookupType.EQ
+                && scan.getSearchKeyExpressions().size() >= keyColumns;
+    }
+
+    // Add the scans of a plan, returning false if it joins or unions their rows
+    private static boolean collectScans(AbstractPlanNode node, List<AbstractScanPlanNode> scans) {
+        switch (node.getPlanNodeType()) {
+        case NESTLOOP:
+        case NESTLOOPINDEX:
+        case UNION:
+            return false;
+        default:
+            break;
+        }
+
+        if (node instanceof AbstractScanPlanNode) {
+            scans.add((AbstractScanPlanNode) node);
+        }
+
+        for (int i = 0; i < node.getChildCount(); ++i) {
+            if (! collectScans(node.getChild(i), scans)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private String getPrefixForName(TokenStream tokenStream, ParserRuleContext sqlStmtCtx) {
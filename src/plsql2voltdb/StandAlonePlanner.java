@@ -2,13 +2,24 @@ package plsql2voltdb;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.voltdb.VoltType;
 import org.voltdb.catalog.Column;
+import org.voltdb.catalog.ColumnRef;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Index;
 import org.voltdb.catalog.Table;
 import org.voltdb.parser.SQLLexer;
 import org.voltdb.parser.SQLParser;
@@ -17,12 +28,58 @@ import org.voltdb.planner.CompiledPlan;
 import org.voltdb.planner.PlannerTestAideDeCamp;
 import org.voltdb.plannodes.NodeSchema;
 
+/**
+ * Plans SQL statements against the DDL, which is compiled once when the
+ * planner is created.  The compiled catalog isn't snapshotted between runs:
+ * VoltDB's planner needs the DDL loaded into its own HSQL session, which a
+ * serialized catalog can't restore, and its plans can't be read back in a
+ * form the analyzer can use, so every run compiles the DDL.  To pay for that
+ * only once across many translations, run a TranslationServer.
+ */
 public class StandAlonePlanner {
 
-    private final PlannerTestAideDeCamp m_aide;
+    static final int DEFAULT_PLAN_CACHE_SIZE = 1000;
 
+    // Matches DDL statements that define or alter a table or view, capturing its name.
+    private static final Pattern TABLE_DDL_PATTERN = Pattern.compile(
+            "^(?:CREATE\\s+(?:TABLE|VIEW)|CREATE\\s+(?:UNIQUE\\s+|ASSUMEUNIQUE\\s+)?INDEX\\s+\\w+\\s+ON"
+            + "|PARTITION\\s+TABLE|DR\\s+TABLE)\\s+(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String m_ddlPath;
+    private final String m_ddl;
+
+    // The catalog that all threads read from, owned by the planner compiled at startup
+    private final Database m_database;
+
+    // The DDL statements that affect each table or view, by upper-case name
+    private final Map<String, List<String>> m_tableDdl = new HashMap<>();
+
+    // The HSQL session behind PlannerTestAideDeCamp is not thread-safe, so
+    // each instance plans one statement at a time.  Idle instances are kept
+    // here for reuse, and the DDL is only compiled again when every instance
+    // is busy planning for another thread.
+    private final Deque<PlannerTestAideDeCamp> m_idleAides = new ArrayDeque<>();
+
+    // Plans of statements, keyed by normalized SQL text,
+    // in least-recently-used order.
+    private final Map<String, CompiledPlan> m_planCache;
+    private long m_planCacheHits = 0;
+    private long m_planCacheMisses = 0;
 
     StandAlonePlanner(String ddlPath) throws Exception {
+        this(ddlPath, DEFAULT_PLAN_CACHE_SIZE);
+    }
+
+    StandAlonePlanner(String ddlPath, final int planCacheSize) throws Exception {
+        m_planCache = new LinkedHashMap<String, CompiledPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledPlan> eldest) {
+                return size() > planCacheSize;
+            }
+        };
 
         String allDdl = new String(Files.readAllBytes(Paths.get(ddlPath)));
 
@@ -57,25 +114,292 @@ public class StandAlonePlanner {
         List<String> goodStmts = new ArrayList<>();
 
         for (String stmt : stmts) {
-            if (stmt.substring(0, 6).equalsIgnoreCase("create")) {
+            // PARTITION statements are kept so that the catalog knows how tables are partitioned
+            if (stmt.substring(0, 6).equalsIgnoreCase("create")
+                    || stmt.regionMatches(true, 0, "partition", 0, 9)) {
                 goodStmts.add(stmt);
             }
+
+            Matcher matcher = TABLE_DDL_PATTERN.matcher(stmt.trim());
+            if (matcher.find()) {
+                String tableName = matcher.group(1).toUpperCase();
+                if (! m_tableDdl.containsKey(tableName)) {
+                    m_tableDdl.put(tableName, new ArrayList<>());
+                }
+                m_tableDdl.get(tableName).add(normalizeSql(stmt));
+            }
         }
 
         // So there will be a trailing semicolon...
         goodStmts.add("");
 
-        String goodDdl = String.join(";\n", goodStmts);
-        m_aide = PlannerTestAideDeCamp.fromLiteralDDL(ddlPath, goodDdl);
+        m_ddlPath = ddlPath;
+        m_ddl = String.join(";\n", goodStmts);
+
+        PlannerTestAideDeCamp aide = PlannerTestAideDeCamp.fromLiteralDDL(m_ddlPath, m_ddl);
+        m_idleAides.push(aide);
+        m_database = aide.getDatabase();
     }
 
     public NodeSchema planAndGetOutputSchema(String sql) {
-        CompiledPlan plan = m_aide.compileAdHocPlan(sql);
-        return plan.rootPlanGraph.getOutputSchema();
+        return plan(sql).rootPlanGraph.getOutputSchema();
+    }
+
+    /**
+     * Plan a statement, or return the cached plan for the same normalized text.
+     * Plans are shared between callers and must not be modified.
+     */
+    public CompiledPlan plan(String sql) {
+        String key = normalizeSql(sql);
+        synchronized (m_planCache) {
+            CompiledPlan plan = m_planCache.get(key);
+            if (plan != null) {
+                ++m_planCacheHits;
+                return plan;
+            }
+            ++m_planCacheMisses;
+        }
+
+        // Plan outside the lock so that other threads are not held up.
+        PlannerTestAideDeCamp aide = takeAide();
+        CompiledPlan plan;
+        try {
+            plan = aide.compileAdHocPlan(sql);
+        }
+        finally {
+            synchronized (m_idleAides) {
+                m_idleAides.push(aide);
+            }
+        }
+        synchronized (m_planCache) {
+            m_planCache.put(key, plan);
+        }
+        return plan;
+    }
+
+    // An idle planner, or a new one if all are in use
+    private PlannerTestAideDeCamp takeAide() {
+        synchronized (m_idleAides) {
+            if (! m_idleAides.isEmpty()) {
+                return m_idleAides.pop();
+            }
+        }
+
+        try {
+            return PlannerTestAideDeCamp.fromLiteralDDL(m_ddlPath, m_ddl);
+        }
+        catch (Exception exc) {
+            throw new RuntimeException("Could not compile DDL for another planner: " + exc.getMessage(), exc);
+        }
+    }
+
+    public long getPlanCacheHits() {
+        synchronized (m_planCache) {
+            return m_planCacheHits;
+        }
+    }
+
+    public long getPlanCacheMisses() {
+        synchronized (m_planCache) {
+            return m_planCacheMisses;
+        }
+    }
+
+    /**
+     * Collapse runs of whitespace and fold case, except inside
+     * quoted string literals and double-quoted identifiers.
+     */
+    static String normalizeSql(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); ++i) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            }
+            else if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            }
+            else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A hash of everything about a table or view that can affect translated
+     * code: the DDL statements that define it, its indexes and partitioning,
+     * and the types of its columns.  Returns null if there is no such table.
+     */
+    public String getTableSignature(String tableName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        List<String> ddl = m_tableDdl.get(tableName.toUpperCase());
+        if (ddl != null) {
+            for (String stmt : ddl) {
+                sb.append(stmt).append('\n');
+            }
+        }
+
+        for (Column col : getColumnsInOrder(tbl)) {
+            sb.append(getColumnDescription(col)).append('\n');
+        }
+
+        return ContentHash.of(sb.toString());
+    }
+
+    private static List<Column> getColumnsInOrder(Table tbl) {
+        List<Column> columns = new ArrayList<>();
+        for (Column col : tbl.getColumns()) {
+            columns.add(col);
+        }
+        columns.sort(Comparator.comparingInt(Column::getIndex));
+        return columns;
+    }
+
+    /**
+     * A hash of the name, type, size and nullability of a column.
+     * Returns null if there is no such column.
+     */
+    public String getColumnSignature(String tableName, String columnName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null) {
+            return null;
+        }
+
+        Column col = tbl.getColumns().getIgnoreCase(columnName);
+        if (col == null) {
+            return null;
+        }
+
+        return ContentHash.of(getColumnDescription(col));
+    }
+
+    private static String getColumnDescription(Column col) {
+        return col.getTypeName() + " " + VoltType.get((byte)col.getType()) + " " + col.getSize()
+                + (col.getNullable() ? " NULL" : " NOT NULL");
+    }
+
+    /**
+     * The upper-case name of the column a table or view is partitioned on,
+     * or null if it is replicated or doesn't exist.
+     */
+    public String getPartitionColumn(String tableName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null || tbl.getIsreplicated() || tbl.getPartitioncolumn() == null) {
+            return null;
+        }
+
+        return tbl.getPartitioncolumn().getTypeName().toUpperCase();
+    }
+
+    /**
+     * The upper-case column names of each index on a table, in index order,
+     * leaving out indexes on expressions.
+     */
+    public List<List<String>> getIndexColumns(String tableName) {
+        List<List<String>> indexes = new ArrayList<>();
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null) {
+            return indexes;
+        }
+
+        for (Index index : tbl.getIndexes()) {
+            if (index.getExpressionsjson() != null && ! index.getExpressionsjson().isEmpty()) {
+                continue;
+            }
+
+            List<ColumnRef> refs = new ArrayList<>();
+            for (ColumnRef ref : index.getColumns()) {
+                refs.add(ref);
+            }
+            refs.sort(Comparator.comparingInt(ColumnRef::getIndex));
+
+            List<String> columns = new ArrayList<>();
+            for (ColumnRef ref : refs) {
+                columns.add(ref.getColumn().getTypeName().toUpperCase());
+            }
+            indexes.add(columns);
+        }
+        return indexes;
+    }
+
+    /**
+     * The number of columns of a unique or assumed-unique index on a table,
+     * so an equality lookup on that many keys finds at most one row.
+     * Returns 0 for an index that isn't unique, is on expressions, or doesn't exist.
+     */
+    public int getUniqueKeyColumnCount(String tableName, String indexName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null) {
+            return 0;
+        }
+
+        Index index = tbl.getIndexes().getIgnoreCase(indexName);
+        if (index == null || ! (index.getUnique() || index.getAssumeunique())
+                || (index.getExpressionsjson() != null && ! index.getExpressionsjson().isEmpty())) {
+            return 0;
+        }
+
+        return index.getColumns().size();
+    }
+
+    /**
+     * True for a replicated table or view, false if it is partitioned or doesn't exist.
+     */
+    public boolean isReplicated(String tableName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        return tbl != null && tbl.getIsreplicated();
+    }
+
+    /**
+     * For a materialized view, the upper-case name of the table it is
+     * defined on.  Returns null for anything else.
+     */
+    public String getViewSource(String tableName) {
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null || tbl.getMaterializer() == null) {
+            return null;
+        }
+
+        return tbl.getMaterializer().getTypeName().toUpperCase();
+    }
+
+    /**
+     * Upper-case names of the columns of a table or view, in order.
+     * Returns an empty list if there is no such table.
+     */
+    public List<String> getColumnNames(String tableName) {
+        List<String> names = new ArrayList<>();
+        Table tbl = m_database.getTables().getIgnoreCase(tableName);
+        if (tbl == null) {
+            return names;
+        }
+
+        for (Column col : getColumnsInOrder(tbl)) {
+            names.add(col.getTypeName().toUpperCase());
+        }
+        return names;
     }
 
     public VoltType getTypeForColumn(String tableName, String columnName) {
-        Table tbl = m_aide.getDatabase().getTables().get(tableName);
+        Table tbl = m_database.getTables().get(tableName);
         Column col = tbl.getColumns().get(columnName);
         return VoltType.get((byte)col.getType());
     }
@@ -0,0 +1,89 @@
+package plsql2voltdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * The variables visible at the current point of a translation, kept up to
+ * date as declarations are seen and scopes are entered and left, rather than
+ * rebuilt for every statement.  A variable declared in an inner scope hides
+ * one with the same name in an outer scope until the inner scope is left.
+ */
+public class SymbolTable {
+
+    // What each open scope declared, and what its declarations hid
+    private static class Scope {
+        final List<String> m_declared = new ArrayList<>();
+        final Map<String, Var> m_hidden = new HashMap<>();
+        final List<String> m_declaredTypes = new ArrayList<>();
+        final Map<String, String> m_hiddenTypes = new HashMap<>();
+    }
+
+    private final Map<String, Var> m_visible = new HashMap<>();
+    // Java types of the visible named PL/SQL types, by upper-case name
+    private final Map<String, String> m_visibleTypes = new HashMap<>();
+    private final Map<String, Var> m_visibleView = Collections.unmodifiableMap(m_visible);
+    private final Stack<Scope> m_scopes = new Stack<>();
+
+    public void pushScope() {
+        m_scopes.push(new Scope());
+    }
+
+    public void popScope() {
+        Scope scope = m_scopes.pop();
+        for (String name : scope.m_declared) {
+            m_visible.remove(name);
+        }
+        m_visible.putAll(scope.m_hidden);
+        for (String name : scope.m_declaredTypes) {
+            m_visibleTypes.remove(name);
+        }
+        m_visibleTypes.putAll(scope.m_hiddenTypes);
+    }
+
+    public void declare(Var var) {
+        Scope scope = m_scopes.peek();
+        Var hidden = m_visible.put(var.getName(), var);
+        if (! scope.m_declared.contains(var.getName())) {
+            scope.m_declared.add(var.getName());
+            if (hidden != null) {
+                scope.m_hidden.put(var.getName(), hidden);
+            }
+        }
+    }
+
+    /**
+     * Declare a named type, such as a collection type, as the given Java type.
+     */
+    public void declareType(String name, String javaType) {
+        Scope scope = m_scopes.peek();
+        String upperName = name.toUpperCase();
+        String hidden = m_visibleTypes.put(upperName, javaType);
+        if (! scope.m_declaredTypes.contains(upperName)) {
+            scope.m_declaredTypes.add(upperName);
+            if (hidden != null) {
+                scope.m_hiddenTypes.put(upperName, hidden);
+            }
+        }
+    }
+
+    public String lookupType(String name) {
+        return m_visibleTypes.get(name.toUpperCase());
+    }
+
+    public Var lookup(String name) {
+        return m_visible.get(name);
+    }
+
+    /**
+     * A read-only view of the visible variables by name.  It changes as
+     * the table does, so callers should not hold on to it.
+     */
+    public Map<String, Var> getVisibleVariables() {
+        return m_visibleView;
+    }
+}
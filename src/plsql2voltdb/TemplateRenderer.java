@@ -0,0 +1,54 @@
+package plsql2voltdb;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroupFile;
+
+/**
+ * Renders generated code with the templates of voltdb-procedure.stg, so
+ * that the generated source can be customized by editing the group file.
+ */
+public class TemplateRenderer implements CodeRenderer {
+
+    private final STGroupFile m_templateGroup;
+
+    public TemplateRenderer() {
+        URL groupFile = ProcedureEmitter.class.getResource("voltdb-procedure.stg");
+        m_templateGroup = new STGroupFile(groupFile, "UTF-8", '<', '>');
+    }
+
+    @Override
+    public String render(Code code) {
+        return toST(code).render();
+    }
+
+    private ST toST(Code code) {
+        ST st = m_templateGroup.getInstanceOf(code.getTemplate().getName());
+        for (String name : code.getTemplate().getAttributes()) {
+            if (code.isSet(name)) {
+                st.add(name, toAttribute(code.get(name)));
+            }
+        }
+        return st;
+    }
+
+    private Object toAttribute(Object value) {
+        if (value instanceof Code) {
+            return toST((Code) value);
+        }
+
+        if (value instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                values.add(toAttribute(element));
+            }
+            return values;
+        }
+
+        return value;
+    }
+}
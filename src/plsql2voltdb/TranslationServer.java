@@ -0,0 +1,187 @@
+package plsql2voltdb;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates files on request over a socket on the loopback interface, so that
+ * editors and commit hooks that translate one file at a time don't pay for JVM
+ * startup, DDL compilation and ANTLR warm-up on every invocation.  The analyzer
+ * and its plan cache stay resident, as do the DFA caches that ANTLR shares
+ * between all instances of the lexer and parser.  If the DDL file is modified,
+ * it is loaded again before the next request.
+ *
+ * Each request is a line holding the path of a PL/SQL file.  The response is
+ * zero or more lines of the form
+ *
+ *   OUT message
+ *   ERR message
+ *   FILE path length
+ *
+ * where each FILE line is followed by length bytes of generated UTF-8 source,
+ * and a final line "DONE rc" with the translator's exit code.
+ */
+public class TranslationServer {
+
+    private final String m_ddlPath;
+    private final String m_targetDirectory;
+    private final String m_targetPackage;
+    private final int m_port;
+    private boolean m_useTemplates = false;
+    private int m_optimizationLevel = PassManager.DEFAULT_LEVEL;
+
+    private PlSql2JavaTranslator m_translator = null;
+    private FileTime m_ddlModifiedTime = null;
+
+    TranslationServer(String ddlPath, String targetDirectory, String targetPackage, int port) {
+        m_ddlPath = ddlPath;
+        m_targetDirectory = targetDirectory;
+        m_targetPackage = targetPackage;
+        m_port = port;
+    }
+
+    void setUseTemplates(boolean useTemplates) {
+        m_useTemplates = useTemplates;
+    }
+
+    void setOptimizationLevel(int level) {
+        m_optimizationLevel = level;
+    }
+
+    /**
+     * Load the DDL now, so that the first request doesn't have to wait for it.
+     */
+    void loadDdl() throws Exception {
+        FileTime modifiedTime = Files.getLastModifiedTime(Paths.get(m_ddlPath));
+        m_translator = new PlSql2JavaTranslator(new SqlAnalyzer(m_ddlPath), m_targetDirectory, m_targetPackage);
+        m_translator.setUseTemplates(m_useTemplates);
+        m_translator.setOptimizationLevel(m_optimizationLevel);
+        m_ddlModifiedTime = modifiedTime;
+    }
+
+    public void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(m_port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on port " + serverSocket.getLocalPort());
+            run(serverSocket);
+        }
+    }
+
+    /**
+     * Serve clients of a socket one at a time until it is closed.
+     */
+    void run(ServerSocket serverSocket) {
+        while (! serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                serve(socket);
+            }
+            catch (IOException ioExc) {
+                if (! serverSocket.isClosed()) {
+                    System.err.println("Lost connection to client: " + ioExc.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+
+        String plSqlFile;
+        while ((plSqlFile = in.readLine()) != null) {
+            plSqlFile = plSqlFile.trim();
+            if (plSqlFile.isEmpty()) {
+                continue;
+            }
+
+            out.write(translate(plSqlFile));
+            out.flush();
+        }
+    }
+
+    private byte[] translate(String plSqlFile) {
+        ByteArrayOutputStream outBuf = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBuf = new ByteArrayOutputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        List<Path> outputFiles = new ArrayList<>();
+
+        int rc;
+        try (PrintStream out = new PrintStream(outBuf, true, "UTF-8");
+                PrintStream err = new PrintStream(errBuf, true, "UTF-8")) {
+            rc = reloadDdlIfModified(err);
+            if (rc == 0) {
+                rc = m_translator.translateFile(plSqlFile, out, err, outputFiles);
+            }
+        }
+        catch (RuntimeException exc) {
+            rc = 1;
+            errBuf.reset();
+            writeLine(errBuf, "Translation failed: " + exc.getMessage());
+        }
+        catch (IOException ioExc) {
+            // Can't happen: UTF-8 is always supported
+            throw new IllegalStateException(ioExc);
+        }
+
+        writeMessages(response, "OUT", outBuf);
+        writeMessages(response, "ERR", errBuf);
+        for (Path outputFile : outputFiles) {
+            try {
+                byte[] src = Files.readAllBytes(outputFile);
+                writeLine(response, "FILE " + outputFile + " " + src.length);
+                response.write(src, 0, src.length);
+            }
+            catch (IOException ioExc) {
+                writeLine(response, "ERR Could not read generated file " + outputFile + ": " + ioExc.getMessage());
+                rc = 1;
+            }
+        }
+        writeLine(response, "DONE " + rc);
+
+        return response.toByteArray();
+    }
+
+    private int reloadDdlIfModified(PrintStream err) {
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime(Paths.get(m_ddlPath));
+            if (m_translator != null && modifiedTime.equals(m_ddlModifiedTime)) {
+                return 0;
+            }
+
+            System.out.println("Loading DDL from " + m_ddlPath);
+            loadDdl();
+            return 0;
+        }
+        catch (Exception exc) {
+            err.println("Problem loading DDL: " + exc.getMessage());
+            return 1;
+        }
+    }
+
+    private static void writeMessages(ByteArrayOutputStream response, String prefix, ByteArrayOutputStream messages) {
+        String text = new String(messages.toByteArray(), StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (! line.isEmpty()) {
+                writeLine(response, prefix + " " + line);
+            }
+        }
+    }
+
+    private static void writeLine(ByteArrayOutputStream response, String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        response.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,94 @@
+package plsql2voltdb;
+
+import java.io.PrintStream;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import plsql_parser.PlSqlParser;
+
+/**
+ * Parses with ANTLR's fast SLL prediction first, bailing out at the first
+ * syntax error, and only falls back to full LL prediction (with the usual
+ * error reporting and recovery) for input that SLL could not handle.  For
+ * valid input the two always produce the same tree.
+ */
+public class TwoStageParser {
+
+    public enum Mode {
+        SLL,
+        LL
+    }
+
+    /**
+     * Reports syntax errors in the same format as ANTLR's
+     * ConsoleErrorListener, but to the given stream.
+     */
+    static class ErrorListener extends BaseErrorListener {
+        private final PrintStream m_err;
+
+        ErrorListener(PrintStream err) {
+            m_err = err;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                int charPositionInLine, String msg, RecognitionException e) {
+            m_err.println("line " + line + ":" + charPositionInLine + " " + msg);
+        }
+    }
+
+    private final TokenStream m_tokens;
+    private final PlSqlParser m_parser;
+    private final PrintStream m_err;
+    private Mode m_mode = null;
+
+    public TwoStageParser(TokenStream tokens, PrintStream err) {
+        m_tokens = tokens;
+        m_parser = new PlSqlParser(tokens);
+        m_err = err;
+    }
+
+    public <T extends ParserRuleContext> T parse(Function<PlSqlParser, T> startRule) {
+        // A stream that hasn't been read from yet reports an index of -1
+        int startIndex = Math.max(m_tokens.index(), 0);
+
+        m_parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        m_parser.removeErrorListeners();
+        m_parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            T tree = startRule.apply(m_parser);
+            m_mode = Mode.SLL;
+            return tree;
+        }
+        catch (ParseCancellationException exc) {
+            // Either the input is invalid or SLL wasn't powerful enough.
+            // Only full LL can tell which.
+        }
+
+        // Parser.reset() rewinds to the start of the token stream
+        m_parser.reset();
+        m_tokens.seek(startIndex);
+        m_parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        m_parser.addErrorListener(new ErrorListener(m_err));
+        m_parser.setErrorHandler(new DefaultErrorStrategy());
+        T tree = startRule.apply(m_parser);
+        m_mode = Mode.LL;
+        return tree;
+    }
+
+    /**
+     * The prediction mode that produced the last tree.
+     */
+    public Mode getMode() {
+        return m_mode;
+    }
+}
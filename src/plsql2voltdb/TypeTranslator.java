@@ -1,7 +1,13 @@
 package plsql2voltdb;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.voltdb.VoltType;
 
+import plsql_parser.PlSqlParser.DatatypeContext;
+import plsql_parser.PlSqlParser.Precision_partContext;
 import plsql_parser.PlSqlParser.Type_nameContext;
 import plsql_parser.PlSqlParser.Type_specContext;
 
@@ -17,6 +23,48 @@ public class TypeTranslator {
             "STRING"
     };
 
+    private static String[] PLSQL_INTEGER_TYPES = {
+            "INTEGER",
+            "INT",
+            "SMALLINT",
+            "PLS_INTEGER",
+            "BINARY_INTEGER",
+            "SIMPLE_INTEGER",
+            "NATURAL",
+            "NATURALN",
+            "POSITIVE",
+            "POSITIVEN",
+            "SIGNTYPE"
+    };
+
+    private static String[] PLSQL_FLOAT_TYPES = {
+            "FLOAT",
+            "REAL",
+            "DOUBLE",
+            "DOUBLEPRECISION",
+            "BINARY_FLOAT",
+            "BINARY_DOUBLE"
+    };
+
+    private static String[] PLSQL_NUMBER_TYPES = {
+            "NUMBER",
+            "NUMERIC",
+            "DECIMAL",
+            "DEC"
+    };
+
+    private static String[] PLSQL_TIMESTAMP_TYPES = {
+            "DATE",
+            "TIMESTAMP",
+            "TIMESTAMP_UNCONSTRAINED"
+    };
+
+    private static String[] PLSQL_BINARY_TYPES = {
+            "RAW",
+            "LONGRAW",
+            "BLOB"
+    };
+
     private static String translateFromColumn(SqlAnalyzer analyzer, Type_specContext type_spec) {
         Type_nameContext typeNameContext = type_spec.type_name();
 
@@ -24,11 +72,28 @@ public class TypeTranslator {
         return translate(colType);
     }
 
-    public static String translate(SqlAnalyzer analyzer, Type_specContext type_spec) {
+    private static boolean isOneOf(String plsqlType, String[] types) {
+        for (String ty : types) {
+            if (ty.equalsIgnoreCase(plsqlType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Translate a PL/SQL type, which may name a type declared in one of
+     * the scopes of the given symbol table.
+     */
+    public static String translate(SqlAnalyzer analyzer, SymbolTable symbols, Type_specContext type_spec) {
         if (type_spec.PERCENT_TYPE() != null) {
             return translateFromColumn(analyzer, type_spec);
         }
 
+        if (type_spec.type_name() != null && type_spec.PERCENT_ROWTYPE() == null) {
+            return symbols.lookupType(type_spec.type_name().getText());
+        }
+
         if (type_spec.datatype() == null
                 || type_spec.datatype().native_datatype_element() == null) {
             return null;
@@ -37,22 +102,52 @@ public class TypeTranslator {
         String plsqlType = type_spec.datatype().native_datatype_element().getText();
         String javaType = null;
 
-        for (String ty : PLSQL_STRING_TYPES) {
-            if (ty.equalsIgnoreCase(plsqlType)) {
-                javaType = "String";
-                break;
-            }
+        if (isOneOf(plsqlType, PLSQL_STRING_TYPES)) {
+            javaType = "String";
         }
-
-        if (javaType == null) {
-            if ("INTEGER".equalsIgnoreCase(plsqlType)) {
-                javaType = "long";
-            }
+        else if (isOneOf(plsqlType, PLSQL_INTEGER_TYPES)) {
+            javaType = "long";
+        }
+        else if (isOneOf(plsqlType, PLSQL_FLOAT_TYPES)) {
+            javaType = "double";
+        }
+        else if (isOneOf(plsqlType, PLSQL_NUMBER_TYPES)) {
+            javaType = translateNumber(type_spec.datatype());
+        }
+        else if (isOneOf(plsqlType, PLSQL_TIMESTAMP_TYPES)) {
+            // Microseconds since the epoch, as VoltDB stores timestamps
+            javaType = "long";
+        }
+        else if (isOneOf(plsqlType, PLSQL_BINARY_TYPES)) {
+            javaType = "byte[]";
         }
 
         return javaType;
     }
 
+    /**
+     * NUMBER(p), NUMBER(p, 0) and NUMBER(*, 0) hold integers, so they are
+     * longs like INTEGER, which is NUMBER(38).  Any other NUMBER is exact,
+     * so it is a BigDecimal, as DECIMAL columns are.
+     */
+    private static String translateNumber(DatatypeContext datatype) {
+        Precision_partContext precision = datatype.precision_part();
+        if (precision == null) {
+            return "BigDecimal";
+        }
+
+        String scale;
+        if ("*".equals(precision.getChild(1).getText())) {
+            // NUMBER(*) is NUMBER, and NUMBER(*, s) has the most digits allowed
+            scale = precision.numeric().isEmpty() ? null : precision.numeric(0).getText();
+        }
+        else {
+            scale = precision.numeric().size() > 1 ? precision.numeric(1).getText() : "0";
+        }
+
+        return "0".equals(scale) ? "long" : "BigDecimal";
+    }
+
     public static String translate(VoltType type) {
         String javaType = null;
 
@@ -61,11 +156,21 @@ public class TypeTranslator {
         case SMALLINT:
         case INTEGER:
         case TINYINT:
+        case TIMESTAMP:
             javaType = "long";
             break;
+        case FLOAT:
+            javaType = "double";
+            break;
+        case DECIMAL:
+            javaType = "BigDecimal";
+            break;
         case STRING:
             javaType = "String";
             break;
+        case VARBINARY:
+            javaType = "byte[]";
+            break;
         default:
             break;
         }
@@ -73,4 +178,67 @@ public class TypeTranslator {
         return javaType;
     }
 
+    /**
+     * The packages a Java type must be imported from.
+     */
+    public static List<String> getImports(String javaType) {
+        if (javaType != null && javaType.startsWith("BigDecimal")) {
+            return Collections.singletonList("java.math.BigDecimal");
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * An expression of one Java type converted to another, where the types
+     * are numbers that Java doesn't convert between by itself, or else the
+     * expression as it is.  A null BigDecimal can't be converted to a long
+     * or a double.
+     */
+    public static String convert(String expr, String fromType, String toType) {
+        List<String> primitives = Arrays.asList("long", "double");
+        if ("BigDecimal".equals(toType) && primitives.contains(fromType)) {
+            return "BigDecimal.valueOf(" + expr + ")";
+        }
+        if ("BigDecimal".equals(fromType) && primitives.contains(toType)) {
+            return expr + "." + toType + "Value()";
+        }
+        return expr;
+    }
+
+    /**
+     * The VoltTable method that reads a column of the given type, or null if
+     * there isn't one.  It returns the Java type the column translates to,
+     * and reads a NULL DECIMAL as null.
+     */
+    public static String getVoltTableAccessor(VoltType type) {
+        String accessor = null;
+
+        switch (type) {
+        case BIGINT:
+        case SMALLINT:
+        case INTEGER:
+        case TINYINT:
+            accessor = "getLong";
+            break;
+        case TIMESTAMP:
+            accessor = "getTimestampAsLong";
+            break;
+        case FLOAT:
+            accessor = "getDouble";
+            break;
+        case DECIMAL:
+            accessor = "getDecimalAsBigDecimal";
+            break;
+        case STRING:
+            accessor = "getString";
+            break;
+        case VARBINARY:
+            accessor = "getVarbinary";
+            break;
+        default:
+            break;
+        }
+
+        return accessor;
+    }
 }
@@ -9,16 +9,17 @@ public class Var {
     private final String m_javaType;
     private final String m_name;
     private final NodeSchema m_schema;
+    private Object m_constantValue = null;
 
-    public static Var fromPlSql(SqlAnalyzer analyzer, ParameterContext ctx) {
+    public static Var fromPlSql(SqlAnalyzer analyzer, SymbolTable symbols, ParameterContext ctx) {
         String name = ctx.parameter_name().getText();
-        String javaType = TypeTranslator.translate(analyzer, ctx.type_spec());
+        String javaType = TypeTranslator.translate(analyzer, symbols, ctx.type_spec());
         return new Var(javaType, name);
     }
 
-    public static Var fromPlSql(SqlAnalyzer analyzer, Variable_declarationContext ctx) {
+    public static Var fromPlSql(SqlAnalyzer analyzer, SymbolTable symbols, Variable_declarationContext ctx) {
         String name = ctx.identifier().getText();
-        String javaType = TypeTranslator.translate(analyzer, ctx.type_spec());
+        String javaType = TypeTranslator.translate(analyzer, symbols, ctx.type_spec());
         return new Var(javaType, name);
     }
 
@@ -47,6 +48,21 @@ public class Var {
         return m_javaType;
     }
 
+    /**
+     * True for a PL/SQL collection, which is held in a Java array.
+     */
+    public boolean isCollection() {
+        return m_javaType != null && m_javaType.endsWith("[]") && ! m_javaType.equals("byte[]");
+    }
+
+    /**
+     * The Java type of an element of a collection.
+     */
+    public String getElementJavaType() {
+        assert(isCollection());
+        return m_javaType.substring(0, m_javaType.length() - 2);
+    }
+
     public String getName() {
         return m_name;
     }
@@ -54,4 +70,15 @@ public class Var {
     public NodeSchema getSchema() {
         return m_schema;
     }
+
+    /**
+     * The value of a CONSTANT, if it was computed when translating, or null.
+     */
+    public Object getConstantValue() {
+        return m_constantValue;
+    }
+
+    public void setConstantValue(Object constantValue) {
+        m_constantValue = constantValue;
+    }
 }
@@ -1,5 +1,8 @@
 package plsql2voltdb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
 import org.junit.Test;
 import org.voltdb.plannodes.NodeSchema;
 
@@ -11,4 +14,30 @@ public class TestStandAlonePlanner {
         NodeSchema schema = planner.planAndGetOutputSchema("select * from votes");
         System.out.println(schema);
     }
+
+    @Test
+    public void testPlanCache() throws Exception {
+        StandAlonePlanner planner = new StandAlonePlanner("./test/plsql2voltdb/voter-ddl.sql", 1);
+
+        NodeSchema schema = planner.planAndGetOutputSchema("select state from votes where state = 'XX'");
+        assertSame(schema, planner.planAndGetOutputSchema("SELECT state\n  FROM votes WHERE state = 'XX'"));
+        assertEquals(1, planner.getPlanCacheHits());
+        assertEquals(1, planner.getPlanCacheMisses());
+
+        // Case is significant inside string literals
+        planner.planAndGetOutputSchema("select state from votes where state = 'xx'");
+        assertEquals(2, planner.getPlanCacheMisses());
+
+        // The first statement was evicted
+        planner.planAndGetOutputSchema("select state from votes where state = 'XX'");
+        assertEquals(3, planner.getPlanCacheMisses());
+    }
+
+    @Test
+    public void testNormalizeSql() {
+        assertEquals("select * from t where a = 'A  b'",
+                StandAlonePlanner.normalizeSql("  SELECT *\n\tFROM t WHERE a = 'A  b'  "));
+        assertEquals("select \"Col A\" from \"MixedCase\"",
+                StandAlonePlanner.normalizeSql("SELECT  \"Col A\"\nFROM \"MixedCase\""));
+    }
 }
@@ -0,0 +1,48 @@
+package plsql2voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestSymbolTable {
+    @Test
+    public void testScopes() {
+        SymbolTable symbols = new SymbolTable();
+        symbols.pushScope();
+        Var outer = Var.fromJava("long", "x");
+        symbols.declare(outer);
+        symbols.declare(Var.fromJava("String", "y"));
+
+        // An inner declaration hides the outer one until its scope is left
+        symbols.pushScope();
+        Var inner = Var.fromJava("String", "x");
+        symbols.declare(inner);
+        symbols.declare(Var.fromJava("long", "z"));
+        assertSame(inner, symbols.lookup("x"));
+        assertEquals(3, symbols.getVisibleVariables().size());
+
+        symbols.popScope();
+        assertSame(outer, symbols.lookup("x"));
+        assertNull(symbols.lookup("z"));
+        assertFalse(symbols.getVisibleVariables().containsKey("z"));
+        assertEquals(2, symbols.getVisibleVariables().size());
+    }
+
+    @Test
+    public void testTypes() {
+        SymbolTable symbols = new SymbolTable();
+        symbols.pushScope();
+        symbols.declareType("id_list", "long[]");
+
+        symbols.pushScope();
+        symbols.declareType("ID_LIST", "String[]");
+        assertEquals("String[]", symbols.lookupType("Id_List"));
+
+        symbols.popScope();
+        assertEquals("long[]", symbols.lookupType("id_list"));
+        assertNull(symbols.lookupType("name_list"));
+    }
+}
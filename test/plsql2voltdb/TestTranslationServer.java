@@ -0,0 +1,85 @@
+package plsql2voltdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestTranslationServer {
+
+    // One line of a response, without its newline
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed in the middle of a response");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        Path targetDir = Files.createTempDirectory("TestTranslationServer");
+        TranslationServer server = new TranslationServer("test/plsql2voltdb/voter-ddl.sql",
+                targetDir.toString(), "voter", 0);
+        server.loadDdl();
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread serverThread = new Thread(() -> server.run(serverSocket));
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+
+                out.write("test/plsql2voltdb/vote.pls\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                // The generated files come back with the output, then the exit code
+                List<String> files = new ArrayList<>();
+                String line;
+                while (! (line = readLine(in)).startsWith("DONE ")) {
+                    assertTrue(line, line.startsWith("OUT ") || line.startsWith("FILE "));
+                    if (line.startsWith("FILE ")) {
+                        String[] fields = line.split(" ");
+                        byte[] src = new byte[Integer.parseInt(fields[2])];
+                        in.readFully(src);
+                        assertArrayEquals(Files.readAllBytes(Paths.get(fields[1])), src);
+                        files.add(Paths.get(fields[1]).getFileName().toString());
+                    }
+                }
+                assertEquals("DONE 0", line);
+                assertTrue(files.contains("Vote.java"));
+                assertTrue(files.contains("Vote.sql"));
+
+                // A request that doesn't name a PL/SQL file fails, and the connection stays usable
+                out.write("no such file.pls\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                line = readLine(in);
+                assertTrue(line, line.startsWith("ERR Couldn't open file \"no such file.pls\""));
+                assertEquals("DONE 1", readLine(in));
+            }
+        }
+    }
+}
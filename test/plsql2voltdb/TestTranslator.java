@@ -1,18 +1,37 @@
 package plsql2voltdb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import plsql_parser.PlSqlLexer;
+import plsql_parser.PlSqlParser;
+
 public class TestTranslator {
 
+    private static final Path VOTE = Paths.get("test/plsql2voltdb/vote.pls");
+
     private Path m_tempDir;
 
     @Before
@@ -26,14 +45,848 @@ public class TestTranslator {
         //Files.deleteIfExists(m_tempDir);
     }
 
+    /**
+     * Translate a script with the voter schema into the voter package in the
+     * temporary directory.  The extra arguments come first, so they can also
+     * name other scripts or replace "-dir", "-ddl" and "-package".
+     */
+    private void translate(Path script, String... extraArgs) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "-ddl", "test/plsql2voltdb/voter-ddl.sql",
+                "-dir", m_tempDir.toString(),
+                "-package", "voter"));
+        args.addAll(Arrays.asList(extraArgs));
+        args.add(script.toString());
+        PlSql2JavaTranslator.main(args.toArray(new String[args.size()]));
+    }
+
+    // What is printed to standard output while running the action
+    private static String captureStdout(Runnable action) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            action.run();
+        }
+        finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
     @Test
     public void testBasic() {
+        translate(VOTE);
+
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        // A second procedure so that both workers have something to do
+        String vote = new String(Files.readAllBytes(Paths.get("test/plsql2voltdb/vote.pls")));
+        Path vote2 = m_tempDir.resolve("vote2.pls");
+        Files.write(vote2, vote.replace("CREATE PROCEDURE Vote ", "CREATE PROCEDURE Vote2 ").getBytes());
+
+        translate(vote2, "-threads", "2", VOTE.toString());
+
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote2.java"))));
+
+        // As without threads, nothing after a file that fails is written
+        Path failed = m_tempDir.resolve("failed");
+        PlSql2JavaTranslator translator = new PlSql2JavaTranslator(
+                new SqlAnalyzer("test/plsql2voltdb/voter-ddl.sql"), failed.toString(), "voter");
+        assertEquals(1, translator.translateFilesInParallel(
+                Arrays.asList(m_tempDir.resolve("missing.pls").toString(), VOTE.toString()), 2));
+        assertFalse(Files.exists(failed.resolve(Paths.get("voter", "Vote.java"))));
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        String manifest = m_tempDir.resolve("manifest").toString();
+        translate(VOTE, "-manifest", manifest);
+
+        Path voteJava = m_tempDir.resolve(Paths.get("voter", "Vote.java"));
+        assertTrue(Files.exists(m_tempDir.resolve("manifest")));
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(voteJava, written);
+
+        // Nothing changed, so the generated file should be left alone
+        translate(VOTE, "-manifest", manifest);
+        assertEquals(written, Files.getLastModifiedTime(voteJava));
+
+        // The output goes somewhere new, so it must be written there
+        Path otherDir = m_tempDir.resolve("other");
+        translate(VOTE, "-manifest", manifest, "-dir", otherDir.toString());
+        assertTrue(Files.exists(otherDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertEquals(written, Files.getLastModifiedTime(voteJava));
+    }
+
+    @Test
+    public void testManifestDependencies() throws IOException {
+        String voterDdl = new String(Files.readAllBytes(Paths.get("test/plsql2voltdb/voter-ddl.sql")));
+        String prizesTable = "CREATE TABLE prizes\n"
+                + "(\n"
+                + "  contestant_number integer     NOT NULL\n"
+                + ", prize             varchar(20) NOT NULL\n"
+                + ");\n\n";
+        String batchEnd = "\nEND_OF_BATCH\n";
+        Path ddl = m_tempDir.resolve("voter-ddl.sql");
+        Files.write(ddl, voterDdl.replace(batchEnd, "\n" + prizesTable + batchEnd).getBytes());
+
+        // A procedure that uses only the prizes table
+        Path prizes = m_tempDir.resolve("prizes.pls");
+        Files.write(prizes, ("CREATE PROCEDURE GetPrize (contestant_in IN  INTEGER,\n"
+                + "                          prize_out     OUT VARCHAR2)\n"
+                + "AS\n"
+                + "BEGIN\n"
+                + "    SELECT prize INTO prize_out FROM prizes WHERE contestant_number = contestant_in;\n"
+                + "END;\n").getBytes());
+
+        String manifest = m_tempDir.resolve("manifest").toString();
+        translate(prizes, "-ddl", ddl.toString(), "-manifest", manifest, VOTE.toString());
+
+        // A table that no procedure uses
+        Files.write(ddl, voterDdl.replace(batchEnd,
+                "\n" + prizesTable + "CREATE TABLE unused (id integer NOT NULL);\n" + batchEnd).getBytes());
+        String out = captureStdout(() ->
+                translate(prizes, "-ddl", ddl.toString(), "-manifest", manifest, VOTE.toString()));
+        assertTrue(out.contains("Skipping unchanged file " + VOTE));
+        assertTrue(out.contains("Skipping unchanged file " + prizes));
+        assertFalse(out.contains("Translating "));
+
+        // A column of a table only Vote uses
+        String widerState = voterDdl.replace("state              varchar(2) NOT NULL",
+                "state              varchar(3) NOT NULL");
+        Files.write(ddl, widerState.replace(batchEnd, "\n" + prizesTable + batchEnd).getBytes());
+        out = captureStdout(() ->
+                translate(prizes, "-ddl", ddl.toString(), "-manifest", manifest, VOTE.toString()));
+        assertTrue(out.contains("Translating " + VOTE + ": table VOTES changed"));
+        assertTrue(out.contains("Skipping unchanged file " + prizes));
+
+        // A column of the table only GetPrize uses
+        Files.write(ddl, widerState.replace(batchEnd,
+                "\n" + prizesTable.replace("varchar(20)", "varchar(40)") + batchEnd).getBytes());
+        out = captureStdout(() ->
+                translate(prizes, "-ddl", ddl.toString(), "-manifest", manifest, VOTE.toString()));
+        assertTrue(out.contains("Skipping unchanged file " + VOTE));
+        assertTrue(out.contains("Translating " + prizes + ": table PRIZES changed"));
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        // One script holding two procedures
+        String vote = new String(Files.readAllBytes(Paths.get("test/plsql2voltdb/vote.pls")));
+        Path script = m_tempDir.resolve("script.pls");
+        Files.write(script, (vote + "\n" + vote.replace("CREATE PROCEDURE Vote ", "CREATE PROCEDURE Vote2 ")).getBytes());
+
+        String out = captureStdout(() -> translate(script, "-stream"));
+
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote2.java"))));
+
+        // Each procedure is written before the next is translated, so it needn't be kept in memory
+        int written = out.indexOf("Writing file " + m_tempDir.resolve(Paths.get("voter", "Vote.java")));
+        int translated = out.indexOf("Procedure Vote2 ");
+        assertTrue(written >= 0 && translated > written);
+
+        // Translated as a whole, the second procedure has only its own statements too
+        Path whole = m_tempDir.resolve("whole");
+        translate(script, "-dir", whole.toString());
+
+        List<String> streamedLines = Files.readAllLines(m_tempDir.resolve(Paths.get("voter", "Vote2.java")));
+        List<String> wholeLines = Files.readAllLines(whole.resolve(Paths.get("voter", "Vote2.java")));
+        streamedLines.removeIf(line -> line.startsWith(" * on "));
+        wholeLines.removeIf(line -> line.startsWith(" * on "));
+        assertEquals(streamedLines, wholeLines);
+    }
+
+    @Test
+    public void testBatching() throws IOException {
+        translate(VOTE, "-O", "2");
+
+        // Each check may return, so the query after it can't run before it
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertFalse(src.contains("sqlResults"));
+
+        Path script = m_tempDir.resolve("checks.pls");
+        Files.write(script, ("CREATE PROCEDURE Checks (phone_number_in      IN  INTEGER,\n"
+                + "                        contestant_number_in IN  INTEGER,\n"
+                + "                        rc_out               OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    n_contestants INTEGER;\n"
+                + "    n_votes       INTEGER;\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n_contestants FROM contestants\n"
+                + "        WHERE contestant_number = contestant_number_in;\n"
+                + "    rc_out := 1;\n"
+                + "    SELECT SUM(num_votes) INTO n_votes FROM v_votes_by_phone_number\n"
+                + "        WHERE phone_number = phone_number_in;\n"
+                + "    IF n_votes > n_contestants THEN\n"
+                + "        RETURN;\n"
+                + "    END IF;\n"
+                + "    INSERT INTO votes VALUES (phone_number_in, 'XX', contestant_number_in);\n"
+                + "    rc_out := 0;\n"
+                + "END;\n").getBytes());
+        translate(script, "-O", "2");
+
+        // The two independent queries run in one round trip across the
+        // assignment, but the insert has to wait until the check has passed.
+        src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Checks.java"))));
+        assertTrue(src.contains("VoltTable[] sqlResults0 = voltExecuteSQL();"));
+        assertTrue(src.contains("n_votes = sqlResults0[1].asScalarLong();"));
+        assertFalse(src.contains("sqlResults1"));
+    }
+
+    @Test
+    public void testPartitioning() throws IOException {
+        translate(VOTE);
+
+        // Every statement is either on a replicated table or keyed on phone_number_in
+        String ddl = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Vote.sql"))));
+        assertTrue(ddl.contains("CREATE PROCEDURE PARTITION ON TABLE VOTES COLUMN PHONE_NUMBER PARAMETER 0 FROM CLASS voter.Vote;"));
+
+        // Only one side of the self-join and the outer query are keyed on the
+        // phone number, so the other scans of votes read every partition
+        Path selfJoin = m_tempDir.resolve("selfjoin.pls");
+        Files.write(selfJoin, ("CREATE PROCEDURE SelfJoin (phone_number_in IN  INTEGER,\n"
+                + "                          n_out           OUT INTEGER)\n"
+                + "AS\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n_out\n"
+                + "        FROM votes a JOIN votes b ON a.state = b.state\n"
+                + "        WHERE a.phone_number = phone_number_in;\n"
+                + "END;\n").getBytes());
+        Path subquery = m_tempDir.resolve("subquery.pls");
+        Files.write(subquery, ("CREATE PROCEDURE Subquery (phone_number_in IN  INTEGER,\n"
+                + "                          n_out           OUT INTEGER)\n"
+                + "AS\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n_out FROM votes\n"
+                + "        WHERE phone_number = phone_number_in\n"
+                + "        AND contestant_number IN (SELECT contestant_number FROM votes);\n"
+                + "END;\n").getBytes());
+        translate(selfJoin, subquery.toString());
+
+        ddl = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "SelfJoin.sql"))));
+        assertTrue(ddl.contains("--   select0 does not restrict B.PHONE_NUMBER of VOTES to a single value\n"));
+        assertTrue(ddl.contains("CREATE PROCEDURE FROM CLASS voter.SelfJoin;"));
+
+        ddl = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Subquery.sql"))));
+        assertTrue(ddl.contains("--   select0 does not restrict VOTES#2.PHONE_NUMBER of VOTES to a single value\n"));
+        assertTrue(ddl.contains("CREATE PROCEDURE FROM CLASS voter.Subquery;"));
+    }
+
+    @Test
+    public void testLint() throws Exception {
+        // A statement for each check
+        Path script = m_tempDir.resolve("lint.pls");
+        Files.write(script, ("CREATE PROCEDURE Lint (state_in IN  VARCHAR2,\n"
+                + "                      rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    n      INTEGER;\n"
+                + "    s      VARCHAR2(2);\n"
+                + "    k      INTEGER;\n"
+                + "    name_v VARCHAR2(50);\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n FROM votes WHERE state = state_in;\n"
+                + "    SELECT state INTO s FROM area_code_state WHERE state = state_in;\n"
+                + "    SELECT COUNT(*) INTO k FROM contestants c, area_code_state a\n"
+                + "        WHERE c.contestant_name = a.state;\n"
+                + "    FOR row IN (SELECT contestant_name FROM contestants ORDER BY contestant_name) LOOP\n"
+                + "        name_v := row.contestant_name;\n"
+                + "    END LOOP;\n"
+                + "    IF s = name_v THEN\n"
+                + "        rc_out := 1;\n"
+                + "        RETURN;\n"
+                + "    END IF;\n"
+                + "    rc_out := n + k;\n"
+                + "END;\n").getBytes());
+
+        Path report = m_tempDir.resolve("lint.tsv");
+        translate(script, "-lint", report.toString());
+
+        List<String> lines = Files.readAllLines(report);
+        assertEquals("procedure\tstatement\tcheck\tdetail\tsql", lines.get(0));
+        assertTrue(lines.contains("Lint\tselect0\tseqscan\tVOTES (partitioned)"
+                + "\tselect count(*) from votes where state = ?"));
+        assertTrue(lines.contains("Lint\tselect0\tmultipartition\tsends a fragment to every partition"
+                + "\tselect count(*) from votes where state = ?"));
+        assertTrue(lines.contains("Lint\tselect1\tmultirow-into\tINTO s may get more than one row"
+                + "\tselect state from area_code_state where state = ?"));
+        assertTrue(lines.contains("Lint\tselect2\tunindexed-join\tjoins CONTESTANTS, AREA_CODE_STATE without an index"
+                + "\tselect count(*) from contestants c, area_code_state a where c.contestant_name = a.state"));
+        assertTrue(lines.contains("Lint\tselect3\tunindexed-orderby\tsorts rows of CONTESTANTS"
+                + "\tselect contestant_name from contestants order by contestant_name"));
+
+        // Without "-lint" the plans aren't linted at all
+        SqlAnalyzer analyzer = new SqlAnalyzer("test/plsql2voltdb/voter-ddl.sql");
+        for (boolean lint : new boolean[] { false, true }) {
+            CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromPath(script)));
+            ParseTree tree = new PlSqlParser(tokens).sql_script();
+            ProcedureEmitter emitter = new ProcedureEmitter(analyzer, m_tempDir.toString(), "voter",
+                    tokens, System.out, System.err);
+            emitter.setLint(lint);
+            emitter.emit(tree);
+            assertEquals(lint, ! emitter.getLintFindings().isEmpty());
+        }
+    }
+
+    @Test
+    public void testAdvise() throws IOException {
+        Path script = m_tempDir.resolve("advice.pls");
+        Files.write(script, ("CREATE PROCEDURE Advice (state_in      IN  VARCHAR2,\n"
+                + "                        contestant_in IN  INTEGER,\n"
+                + "                        rc_out        OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    n INTEGER;\n"
+                + "    m INTEGER;\n"
+                + "    k INTEGER;\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n FROM votes WHERE state = state_in;\n"
+                + "    SELECT MAX(contestant_number) INTO m FROM votes WHERE state = state_in;\n"
+                + "    SELECT COUNT(*) INTO k FROM votes a, votes b\n"
+                + "        WHERE a.contestant_number = contestant_in AND b.phone_number = a.phone_number;\n"
+                + "    rc_out := n + m + k;\n"
+                + "END;\n").getBytes());
+
+        Path advice = m_tempDir.resolve("indexes.sql");
+        translate(script, "-advise", advice.toString());
+
+        // An index on CONTESTANT_NUMBER still leaves the scan of B sequential
+        assertEquals(Arrays.asList(
+                "-- Indexes suggested by plsqltranslator, most widely used first",
+                "",
+                "-- Used by 2 statements: Advice.select0, Advice.select1",
+                "-- Planning with the index avoided a sequential scan in 2 of 2",
+                "CREATE INDEX ADV_VOTES_STATE ON VOTES (STATE);",
+                "",
+                "-- Not suggested, since planning with the index avoided no sequential scans",
+                "",
+                "-- Used by 1 statement: Advice.select2",
+                "-- Planning with the index avoided a sequential scan in 0 of 1",
+                "-- CREATE INDEX ADV_VOTES_CONTESTANT_NUMBER ON VOTES (CONTESTANT_NUMBER);"),
+                Files.readAllLines(advice));
+    }
+
+    @Test
+    public void testPlanSnapshot() throws IOException {
+        Path snapshot = m_tempDir.resolve("plans.txt");
+        translate(VOTE, "-plansnapshot", snapshot.toString());
+
+        List<String> lines = Files.readAllLines(snapshot);
+        assertTrue(lines.contains("statement\tVote.select0"));
+        assertTrue(lines.contains("statement\tVote.insert0"));
+
+        // Nothing can regress against itself
+        assertEquals(0, PlSql2JavaTranslator.diffPlanSnapshots(snapshot.toString(), snapshot.toString()));
+
+        // Dropping the index a query used makes it scan the table
+        String voterDdl = new String(Files.readAllBytes(Paths.get("test/plsql2voltdb/voter-ddl.sql")));
+        String batchEnd = "\nEND_OF_BATCH\n";
+        Path ddl = m_tempDir.resolve("voter-ddl.sql");
+        Files.write(ddl, voterDdl.replace(batchEnd, "\nCREATE INDEX votes_state ON votes (state);\n" + batchEnd).getBytes());
+        Path script = m_tempDir.resolve("bystate.pls");
+        Files.write(script, ("CREATE PROCEDURE ByState (state_in IN  VARCHAR2,\n"
+                + "                         rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "BEGIN\n"
+                + "    SELECT contestant_number INTO rc_out FROM votes WHERE state = state_in;\n"
+                + "END;\n").getBytes());
+
+        Path indexed = m_tempDir.resolve("indexed.txt");
+        translate(script, "-ddl", ddl.toString(), "-plansnapshot", indexed.toString());
+        Path unindexed = m_tempDir.resolve("unindexed.txt");
+        translate(script, "-plansnapshot", unindexed.toString());
+
+        int[] rc = new int[1];
+        String out = captureStdout(() ->
+                rc[0] = PlSql2JavaTranslator.diffPlanSnapshots(indexed.toString(), unindexed.toString()));
+        assertEquals(1, rc[0]);
+        assertTrue(out.contains("ByState.select0: VOTES is now scanned sequentially instead of by INDEXSCAN"));
+        assertTrue(out.contains("1 plan regressions from "));
+    }
+
+    @Test
+    public void testTypes() throws IOException {
+        Path ddl = m_tempDir.resolve("orders-ddl.sql");
+        Files.write(ddl, ("CREATE TABLE orders (\n"
+                + "  order_id BIGINT NOT NULL,\n"
+                + "  price FLOAT,\n"
+                + "  total DECIMAL,\n"
+                + "  placed TIMESTAMP,\n"
+                + "  token VARBINARY(16),\n"
+                + "  PRIMARY KEY (order_id)\n"
+                + ");\n").getBytes());
+        Path script = m_tempDir.resolve("orders.pls");
+        Files.write(script, ("CREATE PROCEDURE GetOrder (order_id_in IN NUMBER(10),\n"
+                + "                          discount_in IN NUMBER(5,2),\n"
+                + "                          since_in    IN DATE,\n"
+                + "                          status_out  OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    price_v  orders.price%TYPE;\n"
+                + "    total_v  orders.total%TYPE;\n"
+                + "    placed_v orders.placed%TYPE;\n"
+                + "    token_v  RAW(16);\n"
+                + "    due_v    NUMBER := 0;\n"
+                + "    count_v  NUMBER(*,0);\n"
+                + "BEGIN\n"
+                + "    SELECT price, total, placed, token\n"
+                + "        INTO price_v, total_v, placed_v, token_v\n"
+                + "        FROM orders\n"
+                + "        WHERE order_id = order_id_in;\n"
+                + "    due_v := total_v - total_v * discount_in / 100;\n"
+                + "    IF due_v > price_v THEN\n"
+                + "        status_out := 1;\n"
+                + "        RETURN;\n"
+                + "    END IF;\n"
+                + "    IF total_v IS NULL THEN\n"
+                + "        status_out := 2;\n"
+                + "        RETURN;\n"
+                + "    END IF;\n"
+                + "    status_out := 0;\n"
+                + "END;\n").getBytes());
+
+        translate(script, "-ddl", ddl.toString(), "-package", "orders");
+
+        // DECIMAL and NUMBER with a fractional part are exact, so PL/SQL
+        // arithmetic and comparisons on them are BigDecimal's
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("orders", "GetOrder.java"))));
+        assertTrue(src.contains("import java.math.BigDecimal;"));
+        assertTrue(src.contains("import java.math.MathContext;"));
+        assertTrue(src.contains("run(long order_id_in, BigDecimal discount_in, long since_in)"));
+        assertTrue(src.contains("double price_v;"));
+        assertTrue(src.contains("BigDecimal total_v;"));
+        assertTrue(src.contains("byte[] token_v;"));
+        assertTrue(src.contains("BigDecimal due_v = BigDecimal.valueOf(0);"));
+        assertTrue(src.contains("long count_v;"));
+        assertTrue(src.contains("price_v = vt.getDouble(0);"));
+        // A NULL total is read as null
+        assertTrue(src.contains("total_v = vt.getDecimalAsBigDecimal(1);"));
+        assertTrue(src.contains("placed_v = vt.getTimestampAsLong(2);"));
+        assertTrue(src.contains("token_v = vt.getVarbinary(3);"));
+        assertTrue(src.contains("due_v = total_v.subtract(total_v.multiply(discount_in)"
+                + ".divide(BigDecimal.valueOf(100), MathContext.DECIMAL128));"));
+        assertTrue(src.contains("if ((due_v != null && due_v.compareTo(BigDecimal.valueOf(price_v)) > 0)) {"));
+        assertTrue(src.contains("if (total_v == null) {"));
+    }
+
+    @Test
+    public void testBulk() throws IOException {
+        Path script = m_tempDir.resolve("copy.pls");
+        Files.write(script, ("CREATE PROCEDURE CopyVotes (state_in IN VARCHAR2,\n"
+                + "                            rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    TYPE phone_list IS TABLE OF votes.phone_number%TYPE;\n"
+                + "    TYPE number_list IS TABLE OF INTEGER;\n"
+                + "    phones  phone_list;\n"
+                + "    numbers number_list;\n"
+                + "BEGIN\n"
+                + "    SELECT phone_number, contestant_number\n"
+                + "        BULK COLLECT INTO phones, numbers\n"
+                + "        FROM votes\n"
+                + "        WHERE state = state_in;\n"
+                + "    FORALL i IN 1 .. phones.COUNT\n"
+                + "        INSERT INTO votes (phone_number, state, contestant_number)\n"
+                + "            VALUES (phones(i), 'XX', numbers(i));\n"
+                + "    rc_out := phones.COUNT;\n"
+                + "END;\n").getBytes());
+
+        translate(script);
+
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "CopyVotes.java"))));
+        assertTrue(src.contains("long[] phones = new long[0];"));
+        assertTrue(src.contains("phones = new long[vt.getRowCount()];"));
+        assertTrue(src.contains("numbers[vt.getActiveRowIndex()] = vt.getLong(1);"));
+        assertTrue(src.contains("for (long i = 1; i <= phones.length; ++i) {"));
+        assertTrue(src.contains("voltQueueSQL(insert0, phones[(int) i - 1], numbers[(int) i - 1]);"));
+        assertTrue(src.contains("if (++queued0 % " + ProcedureEmitter.MAX_BATCH_SIZE + " == 0) {"));
+        assertTrue(src.contains("if (queued0 % " + ProcedureEmitter.MAX_BATCH_SIZE + " != 0) {"));
+        assertTrue(src.contains("rc_out = phones.length;"));
+    }
+
+    @Test
+    public void testCollectionElements() throws Exception {
+        Path script = m_tempDir.resolve("pick.pls");
+        Files.write(script, ("CREATE PROCEDURE PickVotes (first_in  IN  INTEGER,\n"
+                + "                            rc_out    OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    TYPE phone_list IS TABLE OF votes.phone_number%TYPE;\n"
+                + "    phones phone_list;\n"
+                + "BEGIN\n"
+                + "    phones(1) := first_in;\n"
+                + "    phones(phones.COUNT + 1) := 5085551234;\n"
+                + "    FORALL i IN phones.FIRST .. phones.LAST\n"
+                + "        DELETE FROM votes WHERE phone_number = phones(i);\n"
+                + "    rc_out := phones.COUNT;\n"
+                + "END;\n").getBytes());
+
+        Path jarPath = m_tempDir.resolve("pick.jar");
+        translate(script, "-jar", jarPath.toString(), "-sources");
+
+        // Assigning an element past the end grows the array, and the result compiles
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "PickVotes.java"))));
+        assertTrue(src.contains("import java.util.Arrays;"));
+        assertTrue(src.contains("phones = Arrays.copyOf(phones, Math.max(phones.length, (int) 1));"));
+        assertTrue(src.contains("phones[(int) 1 - 1] = first_in;"));
+        // An index that depends on the array is computed before it grows
+        assertTrue(src.contains("index0 = phones.length + 1;\n"
+                + "        phones = Arrays.copyOf(phones, Math.max(phones.length, (int) index0));\n"
+                + "        phones[(int) index0 - 1] = 5085551234L;"));
+        // FIRST and LAST of an empty collection are NULL
+        assertTrue(src.contains("for (long i = (phones.length > 0 ? 1L : null); "
+                + "i <= (phones.length > 0 ? (long) phones.length : null); ++i) {"));
+        assertTrue(src.contains("voltQueueSQL(delete0, phones[(int) i - 1]);"));
+        try (JarFile jar = new JarFile(jarPath.toFile())) {
+            assertTrue(jar.getEntry("voter/PickVotes.class") != null);
+        }
+
+        // Associative arrays aren't arrays, so they're rejected
+        Path indexed = m_tempDir.resolve("indexed.pls");
+        Files.write(indexed, ("CREATE PROCEDURE Indexed (rc_out OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    TYPE number_map IS TABLE OF INTEGER INDEX BY PLS_INTEGER;\n"
+                + "    numbers number_map;\n"
+                + "BEGIN\n"
+                + "    rc_out := 0;\n"
+                + "END;\n").getBytes());
+        PlSql2JavaTranslator translator = new PlSql2JavaTranslator(
+                new SqlAnalyzer("test/plsql2voltdb/voter-ddl.sql"), m_tempDir.toString(), "voter");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int rc = translator.translateFile(indexed.toString(), new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+        assertEquals(1, rc);
+        assertTrue(err.toString().contains("Procedure Indexed: associative array type number_map (INDEX BY) is not supported"));
+        assertFalse(Files.exists(m_tempDir.resolve(Paths.get("voter", "Indexed.java"))));
+    }
+
+    @Test
+    public void testLoopBatching() throws IOException {
+        Path script = m_tempDir.resolve("move.pls");
+        Files.write(script, ("CREATE PROCEDURE MoveVotes (from_in IN VARCHAR2,\n"
+                + "                            to_in   IN VARCHAR2,\n"
+                + "                            rc_out  OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    moved INTEGER := 0;\n"
+                + "BEGIN\n"
+                + "    FOR v IN (SELECT phone_number, contestant_number FROM votes WHERE state = from_in)\n"
+                + "    LOOP\n"
+                + "        UPDATE votes SET state = to_in WHERE phone_number = v.phone_number;\n"
+                + "        INSERT INTO votes (phone_number, state, contestant_number)\n"
+                + "            VALUES (v.phone_number, 'ZZ', v.contestant_number);\n"
+                + "        moved := moved + 1;\n"
+                + "    END LOOP;\n"
+                + "    FOR w IN (SELECT phone_number FROM votes WHERE state = to_in)\n"
+                + "    LOOP\n"
+                + "        SELECT COUNT(*) INTO moved FROM votes WHERE phone_number = w.phone_number;\n"
+                + "    END LOOP;\n"
+                + "    rc_out := moved;\n"
+                + "END;\n").getBytes());
+
+        translate(script, "-O", "2");
+
+        // The DML of two rows fills a batch, and is run after the loop
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "MoveVotes.java"))))
+                .replace(System.lineSeparator(), "\n");
+        int rowsPerBatch = ProcedureEmitter.MAX_BATCH_SIZE / 2;
+        assertTrue(src.contains("voltQueueSQL(update0, to_in, v.getLong(0));\n"
+                + "            voltQueueSQL(insert0, v.getLong(0), v.getLong(1));\n"
+                + "            moved = moved + 1;\n"
+                + "            if (++queued0 % " + rowsPerBatch + " == 0) {"));
+        assertTrue(src.contains("if (queued0 % " + rowsPerBatch + " != 0) {"));
+
+        // A query's result is needed in the same row
+        assertTrue(src.contains("voltQueueSQL(select1, w.getLong(0));\n"
+                + "            moved = voltExecuteSQL()[0].asScalarLong();"));
+        assertFalse(src.contains("queued1"));
+    }
+
+    @Test
+    public void testQueryReuse() throws IOException {
+        Path script = m_tempDir.resolve("tally.pls");
+        Files.write(script, ("CREATE PROCEDURE Tally (state_in IN VARCHAR2,\n"
+                + "                        max_in   IN INTEGER,\n"
+                + "                        rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    total   INTEGER := 0;\n"
+                + "    code    INTEGER;\n"
+                + "    votes_n INTEGER;\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO votes_n FROM votes WHERE state = state_in;\n"
+                + "    IF votes_n > max_in THEN\n"
+                + "        SELECT COUNT(*) INTO total FROM votes WHERE state = state_in;\n"
+                + "    END IF;\n"
+                + "    FOR c IN (SELECT contestant_number FROM contestants)\n"
+                + "    LOOP\n"
+                + "        SELECT area_code INTO code FROM area_code_state WHERE state = state_in;\n"
+                + "        SELECT COUNT(*) INTO votes_n FROM votes WHERE contestant_number = c.contestant_number;\n"
+                + "        total := total + code + votes_n;\n"
+                + "    END LOOP;\n"
+                + "    UPDATE votes SET state = 'ZZ' WHERE state = state_in;\n"
+                + "    SELECT COUNT(*) INTO votes_n FROM votes WHERE state = state_in;\n"
+                + "    rc_out := total + votes_n;\n"
+                + "END;\n").getBytes());
+
+        translate(script, "-O", "2");
+
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Tally.java"))))
+                .replace(System.lineSeparator(), "\n");
+
+        // The count in the IF reuses the one before it
+        assertTrue(src.contains("cached0 = voltExecuteSQL()[0];\n"
+                + "        votes_n = cached0.asScalarLong();\n"
+                + "        if (votes_n > max_in) {\n"
+                + "            cached0.resetRowPosition();\n"
+                + "            total = cached0.asScalarLong();"));
+
+        // The area code is looked up once, before the loop, and the count by
+        // contestant still runs for each row
+        assertTrue(src.contains("voltQueueSQL(select1, state_in);\n"
+                + "        voltQueueSQL(select3);\n"));
+        assertTrue(src.contains("while (c.advanceRow()) {\n"
+                + "            cached1.resetRowPosition();\n"
+                + "            code = cached1.asScalarLong();\n"
+                + "            voltQueueSQL(select2, c.getLong(0));"));
+
+        // The UPDATE changes what the last count sees
+        assertTrue(src.contains("voltQueueSQL(select4, state_in);"));
+    }
+
+    @Test
+    public void testViewReuse() throws IOException {
+        Path script = m_tempDir.resolve("recount.pls");
+        Files.write(script, ("CREATE PROCEDURE Recount (phone_in      IN  INTEGER,\n"
+                + "                         contestant_in IN  INTEGER,\n"
+                + "                         rc_out        OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    before_n INTEGER;\n"
+                + "    after_n  INTEGER;\n"
+                + "    loop_n   INTEGER := 0;\n"
+                + "BEGIN\n"
+                + "    SELECT SUM(num_votes) INTO before_n FROM v_votes_by_phone_number WHERE phone_number = phone_in;\n"
+                + "    INSERT INTO votes VALUES (phone_in, 'XX', contestant_in);\n"
+                + "    SELECT SUM(num_votes) INTO after_n FROM v_votes_by_phone_number WHERE phone_number = phone_in;\n"
+                + "    FOR c IN (SELECT contestant_number FROM contestants)\n"
+                + "    LOOP\n"
+                + "        INSERT INTO votes VALUES (phone_in, 'XX', c.contestant_number);\n"
+                + "        SELECT SUM(num_votes) INTO loop_n FROM v_votes_by_phone_number WHERE phone_number = phone_in;\n"
+                + "    END LOOP;\n"
+                + "    rc_out := after_n - before_n + loop_n;\n"
+                + "END;\n").getBytes());
+
+        translate(script, "-O", "2");
+
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Recount.java"))))
+                .replace(System.lineSeparator(), "\n");
+
+        // An INSERT into VOTES changes its views, so the view is read again after it
+        assertTrue(src.contains("voltQueueSQL(select0, phone_in);\n"
+                + "        voltQueueSQL(insert0, phone_in, contestant_in);\n"
+                + "        voltQueueSQL(select1, phone_in);\n"));
+        assertTrue(src.contains("after_n = sqlResults1[2].asScalarLong();"));
+        assertFalse(src.contains("cached"));
+
+        // and isn't hoisted out of a loop that inserts into VOTES
+        assertTrue(src.contains("while (c.advanceRow()) {\n"
+                + "            voltQueueSQL(insert1, phone_in, c.getLong(0));\n"
+                + "            voltQueueSQL(select2, phone_in);\n"));
+    }
+
+    @Test
+    public void testOptimizationLevels() throws IOException {
+        Path unoptimized = m_tempDir.resolve("O0");
+        translate(VOTE, "-dir", unoptimized.toString(), "-O", "0");
+
+        // Without batching, every statement is executed on its own
+        String src = new String(Files.readAllBytes(unoptimized.resolve(Paths.get("voter", "Vote.java"))));
+        assertFalse(src.contains("sqlResults"));
+        assertTrue(src.contains("state_row = voltExecuteSQL()[0];"));
+
+        String ir = captureStdout(() -> translate(VOTE, "-dir", m_tempDir.resolve("O1").toString(), "-O", "1", "-dump-ir"));
+
+        // The IR is printed as built and after each pass of level 1
+        assertTrue(ir.contains("-- IR of Vote after build"));
+        assertTrue(ir.contains("-- IR of Vote after remove-dead-code"));
+        assertTrue(ir.contains("-- IR of Vote after batch-sql"));
+        assertFalse(ir.contains("after reuse-results"));
+        assertTrue(ir.contains("sql into state_row: "));
+
+        // Followed by how often a plan could be reused
+        assertTrue(ir, ir.matches("(?s).*\nPlan cache: \\d+ hits, [1-9]\\d* misses\n.*"));
+    }
+
+    @Test
+    public void testDeadCode() throws IOException {
+        Path script = m_tempDir.resolve("dead.pls");
+        Files.write(script, ("CREATE PROCEDURE Dead (state_in IN VARCHAR2,\n"
+                + "                       rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    n    INTEGER;\n"
+                + "    code INTEGER;\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n FROM votes WHERE state = state_in;\n"
+                + "    SELECT area_code INTO code FROM area_code_state WHERE state = state_in;\n"
+                + "    n := 1;\n"
+                + "    UPDATE votes SET state = 'ZZ' WHERE state = state_in;\n"
+                + "    SELECT COUNT(*) INTO n FROM votes WHERE state = state_in;\n"
+                + "    rc_out := n;\n"
+                + "END;\n").getBytes());
+
+        String diagnostics = captureStdout(() -> translate(script, "-O", "2"));
+
+        // The first count and the assignment are dead.  The area code query is
+        // also never read, but is kept since it may raise NO_DATA_FOUND or TOO_MANY_ROWS.
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Dead.java"))));
+        assertTrue(src.contains("SQLStmt update0 = "));
+        assertTrue(src.contains("SQLStmt select0 = new SQLStmt(\"SELECT area_code "));
+        assertTrue(src.contains("SQLStmt select1 = "));
+        assertFalse(src.contains("select2"));
+        assertFalse(src.contains("n = 1;"));
+
+        assertTrue(diagnostics.contains("Procedure Dead: removed query whose results are never read:"
+                + " SELECT COUNT(*) FROM votes WHERE state = ?"));
+        assertFalse(diagnostics.contains("SELECT area_code"));
+        assertTrue(diagnostics.contains("Procedure Dead: removed assignment to n, which is never read"));
+    }
+
+    @Test
+    public void testUniqueLookupLoop() throws IOException {
+        translate(VOTE, "-O", "2");
+
+        // The state is looked up by area code, the primary key, so there's at most one row
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertTrue(src.contains("if (state_row.advanceRow()) {"));
+        assertFalse(src.contains("while (state_row.advanceRow())"));
+
+        translate(VOTE, "-O", "1");
+
+        src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        assertTrue(src.contains("while (state_row.advanceRow()) {"));
+    }
+
+    @Test
+    public void testSingleRowInto() throws IOException {
+        Path script = m_tempDir.resolve("states.pls");
+        Files.write(script, ("CREATE PROCEDURE States (code_in IN INTEGER,\n"
+                + "                        rc_out  OUT VARCHAR2)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    s VARCHAR2(2);\n"
+                + "BEGIN\n"
+                + "    SELECT state INTO s FROM area_code_state WHERE area_code = code_in;\n"
+                + "    SELECT state INTO rc_out FROM area_code_state WHERE state = s;\n"
+                + "END;\n").getBytes());
+
+        Path report = m_tempDir.resolve("lint.tsv");
+        translate(script, "-lint", report.toString());
+
+        // The primary key lookup returns at most one row; the other may return many
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "States.java"))));
+        assertTrue(src.contains("s = voltExecuteSQL()[0].fetchRow(0).getString(0);"));
+        assertTrue(src.contains("rc_out = vt.getString(0);"));
+
+        List<String> lines = Files.readAllLines(report);
+        assertTrue(lines.contains("States\tselect1\tmultirow-into\tINTO rc_out may get more than one row"
+                + "\tselect state from area_code_state where state = ?"));
+        for (String line : lines) {
+            assertFalse(line.startsWith("States\tselect0\tmultirow-into"));
+        }
+    }
+
+    @Test
+    public void testConstantFolding() throws IOException {
+        Path script = m_tempDir.resolve("consts.pls");
+        Files.write(script, ("CREATE PROCEDURE Consts (phone_in IN INTEGER,\n"
+                + "                         rc_out   OUT INTEGER)\n"
+                + "AS\n"
+                + "DECLARE\n"
+                + "    max_votes CONSTANT INTEGER := 2 * 5;\n"
+                + "    home      CONSTANT VARCHAR2(2) := 'M' || 'A';\n"
+                + "    n         INTEGER;\n"
+                + "BEGIN\n"
+                + "    SELECT COUNT(*) INTO n FROM votes WHERE phone_number = phone_in AND state = home;\n"
+                + "    rc_out := n + (max_votes + 1) * 2;\n"
+                + "    IF n > max_votes THEN\n"
+                + "        rc_out := (max_votes + 1) * 2;\n"
+                + "    END IF;\n"
+                + "END;\n").getBytes());
+
+        translate(script, "-O", "2");
+
+        String src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Consts.java"))));
+        assertTrue(src.contains("static final long max_votes = 10;"));
+        assertTrue(src.contains("static final String home = \"MA\";"));
+        assertTrue(src.contains("state = 'MA'"));
+        assertTrue(src.contains("voltQueueSQL(select0, phone_in);"));
+        assertTrue(src.contains("rc_out = 22;"));
+        // Only whole expressions are folded
+        assertTrue(src.contains("rc_out = n + (max_votes + 1) * 2;"));
+
+        translate(script, "-O", "0");
+
+        src = new String(Files.readAllBytes(m_tempDir.resolve(Paths.get("voter", "Consts.java"))));
+        assertTrue(src.contains("voltQueueSQL(select0, phone_in, home);"));
+    }
+
+    @Test
+    public void testTemplates() throws IOException {
+        Path direct = m_tempDir.resolve("direct");
+        Path templates = m_tempDir.resolve("templates");
+        translate(VOTE, "-dir", direct.toString());
+        translate(VOTE, "-dir", templates.toString(), "-templates");
+
+        // Both backends write the same code, apart from when it was generated
+        List<String> directLines = Files.readAllLines(direct.resolve(Paths.get("voter", "Vote.java")));
+        List<String> templateLines = Files.readAllLines(templates.resolve(Paths.get("voter", "Vote.java")));
+        directLines.removeIf(line -> line.startsWith(" * on "));
+        templateLines.removeIf(line -> line.startsWith(" * on "));
+        assertEquals(templateLines, directLines);
+    }
+
+    @Test
+    public void testJar() throws IOException {
+        Path jarPath = m_tempDir.resolve("procs.jar");
+        translate(VOTE, "-jar", jarPath.toString());
+
+        // The classes are for Java 8, which VoltDB runs, and only the DDL is written
+        try (JarFile jar = new JarFile(jarPath.toFile())) {
+            JarEntry entry = jar.getJarEntry("voter/Vote.class");
+            assertTrue(entry != null);
+            try (DataInputStream classFile = new DataInputStream(jar.getInputStream(entry))) {
+                assertEquals(0xCAFEBABE, classFile.readInt());
+                classFile.readUnsignedShort();
+                assertEquals(52, classFile.readUnsignedShort());
+            }
+        }
+        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.sql"))));
+        assertFalse(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+
+        // Without "-package" the classes are in the default package
+        Path defaultDir = m_tempDir.resolve("default");
+        Path defaultJar = m_tempDir.resolve("default.jar");
         PlSql2JavaTranslator.main(new String[] {
                 "-ddl", "test/plsql2voltdb/voter-ddl.sql",
-                "-dir", m_tempDir.toString(),
-                "-package", "voter",
-                "test/plsql2voltdb/vote.pls"});
+                "-dir", defaultDir.toString(),
+                "-jar", defaultJar.toString(),
+                "-sources",
+                VOTE.toString() });
 
-        assertTrue(Files.exists(m_tempDir.resolve(Paths.get("voter", "Vote.java"))));
+        String ddl = new String(Files.readAllBytes(defaultDir.resolve("Vote.sql")));
+        assertTrue(ddl.contains("FROM CLASS Vote;"));
+        assertFalse(new String(Files.readAllBytes(defaultDir.resolve("Vote.java"))).contains("package "));
+        try (JarFile jar = new JarFile(defaultJar.toFile())) {
+            assertTrue(jar.getEntry("Vote.class") != null);
+        }
     }
 }
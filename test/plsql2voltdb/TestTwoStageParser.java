@@ -0,0 +1,38 @@
+package plsql2voltdb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+
+import plsql_parser.PlSqlLexer;
+import plsql_parser.PlSqlParser;
+
+public class TestTwoStageParser {
+
+    @Test
+    public void testValidInputUsesSll() throws IOException {
+        CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromFileName("test/plsql2voltdb/vote.pls")));
+        TwoStageParser parser = new TwoStageParser(tokens, System.err);
+        ParseTree tree = parser.parse(PlSqlParser::sql_script);
+        assertEquals(TwoStageParser.Mode.SLL, parser.getMode());
+
+        // Should be the same tree that full LL prediction produces
+        CommonTokenStream llTokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromFileName("test/plsql2voltdb/vote.pls")));
+        PlSqlParser llParser = new PlSqlParser(llTokens);
+        assertEquals(llParser.sql_script().toStringTree(llParser), tree.toStringTree(llParser));
+    }
+
+    @Test
+    public void testInvalidInputFallsBackToLl() {
+        CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromString(
+                "CREATE PROCEDURE Bad (x IN INTEGER) AS BEGIN x := ; END;")));
+        TwoStageParser parser = new TwoStageParser(tokens, System.err);
+        parser.parse(PlSqlParser::sql_script);
+        assertEquals(TwoStageParser.Mode.LL, parser.getMode());
+    }
+}